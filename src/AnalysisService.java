@@ -0,0 +1,110 @@
+import javax.swing.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Works out the legal moves, check and end of game of positions on a background
+ * thread, so the GUI never runs move generation on the event dispatch thread.
+ *
+ * A request takes a snapshot of the position with NormalGameRule.toPosition, which
+ * is cheap, on the calling thread, and the analysis runs on a copy of it. Results
+ * are handed to a callback on the event dispatch thread. Only the latest request
+ * matters: a new request cancels the one before it, which is dropped before it
+ * starts, between two of its moves, or before its callback runs.
+ */
+public class AnalysisService {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "Analysis");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong latest = new AtomicLong();    /**< Number of the latest request */
+    private Future<?> pending;                             /**< Task of the latest request */
+
+    /**
+     * Analyse a position in the background. Call on the event dispatch thread.
+     * @param rule        Game in the position, read only while this method runs
+     * @param callback    Receives the analysis on the event dispatch thread, unless another request came meanwhile
+     */
+    synchronized void request(NormalGameRule rule, Consumer<Analysis> callback){
+        long id = latest.incrementAndGet();
+        String position = rule.toPosition();
+        long hash = rule.board.hash();
+        int moves = rule.board.move;
+        if(pending != null) pending.cancel(false);
+
+        BooleanSupplier stale = () -> latest.get() != id;
+        pending = executor.submit(() -> {
+            if(stale.getAsBoolean())    return;
+            Analysis analysis = analyze(position, stale);
+            if(analysis == null)    return;
+            analysis.hash = hash;
+            analysis.moves = moves;
+            SwingUtilities.invokeLater(() -> {
+                if(!stale.getAsBoolean())   callback.accept(analysis);
+            });
+        });
+    }
+
+    /**
+     * Drop the latest request, if it has not been delivered yet.
+     */
+    synchronized void cancel(){
+        latest.incrementAndGet();
+        if(pending != null) pending.cancel(false);
+        pending = null;
+    }
+
+    /**
+     * Analyse a position on the current thread.
+     * @param position    Position string, see NormalGameRule.toPosition
+     * @param stale       True once the result is no longer wanted
+     * @return  The analysis, null if it became stale
+     */
+    static Analysis analyze(String position, BooleanSupplier stale){
+        NormalGameRule rule = NormalGameRule.fromPosition(position);
+        Side turn = rule.board.getTurn();
+        MoveList moves = rule.generateMoves(turn);
+
+        Analysis analysis = new Analysis();
+        analysis.turn = turn;
+        analysis.legal = new int[moves.size()];
+        analysis.losing = new boolean[moves.size()];
+        for(int i = 0; i < moves.size(); i++){
+            if(stale.getAsBoolean())    return null;
+            analysis.legal[i] = moves.get(i);
+            analysis.losing[i] = rule.exchange.evaluate(moves.get(i)) < 0;
+        }
+        analysis.check = rule.isInCheck(turn);
+        if(moves.isEmpty()){
+            analysis.status = analysis.check ? GameStatus.EndGameReason.CHECKMATE : GameStatus.EndGameReason.STALEMATE;
+        }
+        return analysis;
+    }
+
+    /**
+     * Legal moves, check and end of game of a position.
+     */
+    static class Analysis{
+        long hash;              /**< Hash of the position, as returned by SquareBoard.hash */
+        int moves;              /**< SquareBoard.move of the position */
+        Side turn;              /**< Side to move */
+        int[] legal;            /**< Legal moves of the side to move */
+        boolean[] losing;       /**< True for the legal moves losing material, see StaticExchange */
+        boolean check;          /**< True if the side to move is in check */
+        GameStatus.EndGameReason status = GameStatus.EndGameReason.NOT_ENDED;
+
+        /**
+         * Check if this is the analysis of the position on a board.
+         * @param board    Chess board
+         * @return  True if the board is still in the analysed position
+         */
+        boolean isOf(SquareBoard board){
+            return hash == board.hash() && moves == board.move;
+        }
+    }
+}
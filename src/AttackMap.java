@@ -0,0 +1,182 @@
+/**
+ * Squares attacked by each side of a SquareBoard, kept up to date as pieces are
+ * placed on and lifted from the mailbox.
+ *
+ * An attack is a square on which a piece could capture a king: Pawn diagonals,
+ * Knight and King steps, and slider rays up to and including the first piece of
+ * either side. Cannons only count their direct lines, since a hop cannot capture
+ * a king, and Turners skip the direction they moved in last time.
+ *
+ * Every piece gets a slot on first placement, so the attackers of a square are a
+ * single long per side. Placing or lifting a piece only changes its own attacks and
+ * the rays of the sliders attacking that square, beyond the square itself. Attacks
+ * are never stored per piece: the board is consistent with the map everywhere but
+ * the changed square, so a lifted piece clears its attacks by walking them again.
+ * A piece must therefore be lifted before its previousDirection changes.
+ *
+ * Attackers are indexed by mailbox cell and every walk toggles its bits, since adding
+ * and removing always cover exactly the same cells. Sentinel cells collect bits that
+ * are never read, which saves a bounds check per attacked square.
+ */
+public class AttackMap {
+    static final int SLOTS = 64;    /**< Pieces per side which can be tracked */
+
+    SquareBoard board;
+    ChessPiece[][] slots = new ChessPiece[2][SLOTS];    /**< Piece of each slot by side */
+    int[] used = new int[2];                            /**< Slots taken by side */
+    long[] sliders = new long[2];                       /**< Slots of pieces with ray attacks by side */
+    long[][] attackers;         /**< Slots attacking a mailbox cell by side */
+
+    AttackMap(SquareBoard board){
+        this.board = board;
+        attackers = new long[2][board.geometry.cells];
+    }
+
+    /**
+     * Record a piece standing on an empty location, after the mailbox has been updated.
+     * @param piece    Piece placed
+     * @param id       Location id
+     * @return  False if the side has no free slot left, the map is then out of date
+     */
+    boolean place(ChessPiece piece, int id){
+        int side = piece.side.toInt();
+        if(piece.slot == -1 || slots[side][piece.slot] != piece){
+            if(used[side] == SLOTS) return false;
+
+            piece.slot = used[side]++;
+            slots[side][piece.slot] = piece;
+            if(piece.type != PieceType.PAWN && piece.type != PieceType.KNIGHT && piece.type != PieceType.KING){
+                sliders[side] |= 1L << piece.slot;
+            }
+        }
+
+        updateSliders(id);
+        toggleAttacks(piece, side);
+        return true;
+    }
+
+    /**
+     * Record a piece leaving a location, which is empty after the mailbox has been updated.
+     * @param piece    Piece lifted
+     * @param id       Location id
+     */
+    void lift(ChessPiece piece, int id){
+        toggleAttacks(piece, piece.side.toInt());
+        updateSliders(id);
+    }
+
+    /**
+     * Check if a side attacks a location.
+     * @param side    Attacking side
+     * @param id      Location id
+     * @return  True if at least one piece attacks it
+     */
+    boolean isAttacked(Side side, int id){
+        return attackers[side.toInt()][board.geometry.cellOf[id]] != 0;
+    }
+
+    /**
+     * Count the pieces of a side attacking a location.
+     * @param side    Attacking side
+     * @param id      Location id
+     * @return  Number of attackers
+     */
+    int count(Side side, int id){
+        return Long.bitCount(attackers[side.toInt()][board.geometry.cellOf[id]]);
+    }
+
+    /**
+     * Find a piece which is able to capture a king standing on a location.
+     * @param side    Side of the attacking pieces
+     * @param id      Location id
+     * @return  One attacking piece, null if there is none
+     */
+    ChessPiece findAttacker(Side side, int id){
+        long mask = attackers[side.toInt()][board.geometry.cellOf[id]];
+        return mask == 0 ? null : slots[side.toInt()][Long.numberOfTrailingZeros(mask)];
+    }
+
+    /**
+     * Extend or cut the rays of the sliders attacking a location that just changed.
+     * Beyond the location, a ray either reached the next piece or stopped at the
+     * location, and toggling the cells in between switches from one to the other.
+     * @param id    Location id
+     */
+    private void updateSliders(int id){
+        BoardGeometry geometry = board.geometry;
+        int cell = geometry.cellOf[id];
+        for(int side = 0; side < 2; side++){
+            for(long mask = attackers[side][cell] & sliders[side]; mask != 0; mask &= mask - 1){
+                int slot = Long.numberOfTrailingZeros(mask);
+                Direction direction = geometry.direction(slots[side][slot].location, id);
+                toggleRay(1L << slot, attackers[side], cell, geometry.offsets[direction.ordinal()]);
+            }
+        }
+    }
+
+    /**
+     * Add or remove all attacks of a piece.
+     * @param piece    Piece on the board
+     * @param side     Side of the piece
+     */
+    private void toggleAttacks(ChessPiece piece, int side){
+        BoardGeometry geometry = board.geometry;
+        long[] map = attackers[side];
+        long bit = 1L << piece.slot;
+        int cell = geometry.cellOf[piece.location];
+
+        switch (piece.type){
+            case PAWN:
+                int forward = geometry.offsets[(piece.side == Side.WHITE ? Direction.N : Direction.S).ordinal()];
+                map[cell + forward - 1] ^= bit;
+                map[cell + forward + 1] ^= bit;
+                break;
+            case KNIGHT:
+                for(int offset : geometry.knightOffsets){
+                    map[cell + offset] ^= bit;
+                }
+                break;
+            case KING:
+                for(Direction direction : Direction.ALL){
+                    map[cell + geometry.offsets[direction.ordinal()]] ^= bit;
+                }
+                break;
+            case ROOK:
+            case CANNON:
+                toggleRays(piece, bit, map, Direction.ORTHOGONAL);
+                break;
+            case BISHOP:
+                toggleRays(piece, bit, map, Direction.DIAGONAL);
+                break;
+            case QUEEN:
+                toggleRays(piece, bit, map, Direction.ALL);
+                break;
+            case TURNER:
+                toggleRays(piece, bit, map, Direction.ORTHOGONAL);
+                break;
+        }
+    }
+
+    private void toggleRays(ChessPiece piece, long bit, long[] map, Direction[] directions){
+        int cell = board.geometry.cellOf[piece.location];
+        for(Direction direction : directions){
+            if(piece.type == PieceType.TURNER && piece.previousDirection == direction) continue;
+            toggleRay(bit, map, cell, board.geometry.offsets[direction.ordinal()]);
+        }
+    }
+
+    /**
+     * Toggle the attacks along a ray, up to and including the first piece or sentinel.
+     * @param bit     Slot bit of the slider
+     * @param map     Attackers of the slider's side
+     * @param cell    Mailbox index the ray starts from, exclusive
+     * @param step    Mailbox step of the direction
+     */
+    private void toggleRay(long bit, long[] map, int cell, int step){
+        ChessPiece[] mailbox = board.mailbox;
+        for(cell += step; mailbox[cell] == null; cell += step){
+            map[cell] ^= bit;
+        }
+        map[cell] ^= bit;
+    }
+}
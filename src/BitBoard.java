@@ -0,0 +1,69 @@
+/**
+ * Bitboard mirror of a SquareBoard.
+ *
+ * The SquareBoard stays the owner of all pieces and keeps its BitBoard in sync
+ * whenever a piece is placed on or lifted from a location. Rule queries which
+ * are hot during move generation (move legality and check detection) are then
+ * answered with word operations instead of walking the grid.
+ */
+public abstract class BitBoard {
+    int dimension;  /**< Dimension of the mirrored board */
+
+    BitBoard(int dimension){
+        this.dimension = dimension;
+    }
+
+    /**
+     * Pick a bitboard layout for a board dimension.
+     * @param dimension    Dimension of the board
+     * @return  A BitBoard, null if the dimension is not supported
+     */
+    static BitBoard forDimension(int dimension){
+        if(dimension == BitBoard64.DIMENSION){
+            return new BitBoard64();
+        }
+        if(dimension <= BitBoard256.STRIDE){
+            return new BitBoard256(dimension);
+        }
+        return null;
+    }
+
+    /**
+     * Record a piece standing on a location.
+     * @param piece    Piece placed
+     * @param id       Location id
+     */
+    abstract void place(ChessPiece piece, int id);
+
+    /**
+     * Record a piece leaving a location.
+     * @param piece    Piece lifted
+     * @param id       Location id
+     */
+    abstract void lift(ChessPiece piece, int id);
+
+    /**
+     * Check if a move follows the movement of the piece, same as NormalGameRule.isMoveLegal.
+     * Leaving the own king in check is not considered.
+     * @param piece    Piece to move
+     * @param to       Destination location id
+     * @return  True if legal
+     */
+    abstract boolean isMoveLegal(ChessPiece piece, int to);
+
+    /**
+     * Append every move which follows the movement of the piece.
+     * Leaving the own king in check is not considered.
+     * @param piece    Piece to move
+     * @param moves    Buffer to append to
+     */
+    abstract void addMoves(ChessPiece piece, MoveList moves);
+
+    /**
+     * Find a piece which is able to capture a king standing on a location.
+     * @param side    Side of the attacking pieces
+     * @param id      Location id
+     * @return  One attacking piece, null if there is none
+     */
+    abstract ChessPiece findAttacker(Side side, int id);
+}
@@ -0,0 +1,466 @@
+/**
+ * BitBoard for boards up to 16x16, such as the 15x15 default, packed into four longs.
+ *
+ * Every row takes 16 bits regardless of the dimension, so a word holds exactly
+ * four rows and a step in any Direction is a shift by a constant followed by a
+ * column mask against wrap-around. The rays of every square are built once per
+ * dimension with Kogge-Stone fills, which cover a 16 square ray in four shifts, and
+ * shared through BoardGeometry. Attack sets and collision checks then take a few
+ * word operations per ray.
+ */
+public class BitBoard256 extends BitBoard {
+    static final int STRIDE = 16;   /**< Bits per row */
+    static final int WORDS = 4;     /**< Longs per bitboard */
+    static final int BITS = WORDS * 64;
+
+    /**
+     * Columns kept after shifting by dx columns, indexed by dx + STRIDE.
+     * Shifting east drops the bits that wrapped into the first columns, and vice versa.
+     */
+    static final long[] COLUMN_KEEP = new long[2 * STRIDE + 1];
+
+    static {
+        for(int dx = -STRIDE; dx <= STRIDE; dx++){
+            long row = dx >= 0 ? ~((1L << dx) - 1) & 0xFFFF : (1L << (STRIDE + dx)) - 1;
+            COLUMN_KEEP[dx + STRIDE] = row | row << 16 | row << 32 | row << 48;
+        }
+    }
+
+    long[][][] pieces = new long[2][PieceType.values().length][WORDS];  /**< Pieces by side and type */
+    long[][] occupancy = new long[2][WORDS];                            /**< All pieces of a side */
+    ChessPiece[] occupant = new ChessPiece[BITS];                       /**< Piece on each bit */
+    long[] onBoard;         /**< Bits inside the dimension */
+    int[] bitOf;            /**< Bit index of a location id */
+    long[][] knight;        /**< Knight targets of a bit */
+    long[][] king;          /**< King targets of a bit */
+    long[][][] rays;        /**< Squares in a direction, exclusive, empty for NONE */
+
+    // scratch bitboards, a BitBoard is never shared between threads
+    private long[] occupied = new long[WORDS], empty = new long[WORDS], single = new long[WORDS],
+            ray = new long[WORDS], hop = new long[WORDS], result = new long[WORDS], shifted = new long[WORDS];
+
+    BitBoard256(int dimension){
+        super(dimension);
+
+        Masks masks = BoardGeometry.forDimension(dimension).wideMasks();
+        onBoard = masks.onBoard;
+        bitOf = masks.bitOf;
+        knight = masks.knight;
+        king = masks.king;
+        rays = masks.rays;
+    }
+
+    /**
+     * Read-only masks of a dimension, shared by every BitBoard256 of that size through BoardGeometry.
+     */
+    static class Masks{
+        long[] onBoard = new long[WORDS];   /**< Bits inside the dimension */
+        int[] bitOf;                        /**< Bit index of a location id */
+        long[][] knight = new long[BITS][];                             /**< Knight targets of a bit */
+        long[][] king = new long[BITS][];                               /**< King targets of a bit */
+        long[][][] rays = new long[Direction.values().length][BITS][];  /**< Squares in a direction, exclusive, empty for NONE */
+
+        private long[] gen = new long[WORDS], pro = new long[WORDS], shifted = new long[WORDS];
+
+        Masks(int dimension){
+            bitOf = new int[dimension * dimension];
+            for(int id = 0; id < bitOf.length; id++){
+                bitOf[id] = id / dimension * STRIDE + id % dimension;
+                set(onBoard, bitOf[id]);
+            }
+
+            long[] single = new long[WORDS];
+            for(int bit = 0; bit < BITS; bit++){
+                for(Direction direction : Direction.values()){
+                    rays[direction.ordinal()][bit] = new long[WORDS];
+                }
+                knight[bit] = new long[WORDS];
+                king[bit] = new long[WORDS];
+                if(!test(onBoard, bit))    continue;
+
+                for(int i = 0; i < WORDS; i++)  single[i] = 0;
+                set(single, bit);
+                knightSpread(single, knight[bit]);
+                kingSpread(single, king[bit]);
+                for(Direction direction : Direction.ALL){
+                    slide(single, direction, onBoard, rays[direction.ordinal()][bit]);
+                }
+            }
+        }
+
+        /**
+         * Squares reached by sliding from every bit of `from` in one direction,
+         * up to and including the first square not in `open`.
+         * @param from         Sliding pieces
+         * @param direction    Direction to slide in
+         * @param open         Squares which can be passed through
+         * @param dst          Destination bitboard, must not be from or open
+         */
+        private void slide(long[] from, Direction direction, long[] open, long[] dst){
+            for(int i = 0; i < WORDS; i++){
+                gen[i] = from[i];
+                pro[i] = open[i];
+            }
+            for(int step = 1; step < STRIDE; step <<= 1){
+                shift(gen, step * direction.dx, step * direction.dy, shifted);
+                for(int i = 0; i < WORDS; i++)  gen[i] |= pro[i] & shifted[i];
+                shift(pro, step * direction.dx, step * direction.dy, shifted);
+                for(int i = 0; i < WORDS; i++)  pro[i] &= shifted[i];
+            }
+            shift(gen, direction.dx, direction.dy, dst);
+            for(int i = 0; i < WORDS; i++)  dst[i] &= onBoard[i];
+        }
+
+        private void knightSpread(long[] src, long[] dst){
+            for(int dx = -2; dx <= 2; dx++){
+                for(int dy = -2; dy <= 2; dy++){
+                    if(dx != 0 && dy != 0 && Math.abs(dx) != Math.abs(dy)){
+                        spread(src, dx, dy, onBoard, shifted, dst);
+                    }
+                }
+            }
+        }
+
+        private void kingSpread(long[] src, long[] dst){
+            for(Direction direction : Direction.ALL){
+                spread(src, direction.dx, direction.dy, onBoard, shifted, dst);
+            }
+        }
+    }
+
+    static void set(long[] board, int bit){
+        board[bit >>> 6] |= 1L << bit;
+    }
+
+    static void clear(long[] board, int bit){
+        board[bit >>> 6] &= ~(1L << bit);
+    }
+
+    static boolean test(long[] board, int bit){
+        return (board[bit >>> 6] >>> bit & 1) != 0;
+    }
+
+    static boolean isEmpty(long[] board){
+        return (board[0] | board[1] | board[2] | board[3]) == 0;
+    }
+
+    /**
+     * Get the lowest set bit.
+     * @param board    A bitboard
+     * @return  Bit index, -1 if empty
+     */
+    static int lowestBit(long[] board){
+        for(int i = 0; i < WORDS; i++){
+            if(board[i] != 0){
+                return i * 64 + Long.numberOfTrailingZeros(board[i]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the highest set bit.
+     * @param board    A bitboard
+     * @return  Bit index, -1 if empty
+     */
+    static int highestBit(long[] board){
+        for(int i = WORDS - 1; i >= 0; i--){
+            if(board[i] != 0){
+                return i * 64 + 63 - Long.numberOfLeadingZeros(board[i]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Move every bit by dx columns and dy rows. Bits wrapping around a row edge are dropped.
+     * Safe to use with src and dst being the same array.
+     * @param src    Source bitboard
+     * @param dx     Columns to the right
+     * @param dy     Rows to the bottom
+     * @param dst    Destination bitboard
+     */
+    static void shift(long[] src, int dx, int dy, long[] dst){
+        int n = dy * STRIDE + dx;
+        long keep = COLUMN_KEEP[dx + STRIDE];
+
+        if(n >= 0){
+            int words = n >>> 6, bits = n & 63;
+            for(int i = WORDS - 1; i >= 0; i--){
+                int j = i - words;
+                long value = j >= 0 ? src[j] << bits : 0;
+                if(bits != 0 && j > 0){
+                    value |= src[j - 1] >>> (64 - bits);
+                }
+                dst[i] = value & keep;
+            }
+        }else{
+            n = -n;
+            int words = n >>> 6, bits = n & 63;
+            for(int i = 0; i < WORDS; i++){
+                int j = i + words;
+                long value = j < WORDS ? src[j] >>> bits : 0;
+                if(bits != 0 && j + 1 < WORDS){
+                    value |= src[j + 1] << (64 - bits);
+                }
+                dst[i] = value & keep;
+            }
+        }
+    }
+
+    /**
+     * OR a shifted copy of a bitboard into another, masked to the board.
+     * @param src        Source bitboard
+     * @param dx         Columns to the right
+     * @param dy         Rows to the bottom
+     * @param onBoard    Bits inside the dimension
+     * @param scratch    Scratch bitboard
+     * @param dst        Destination bitboard
+     */
+    static void spread(long[] src, int dx, int dy, long[] onBoard, long[] scratch, long[] dst){
+        shift(src, dx, dy, scratch);
+        for(int i = 0; i < WORDS; i++)  dst[i] |= scratch[i] & onBoard[i];
+    }
+
+    private void prepare(){
+        for(int i = 0; i < WORDS; i++){
+            occupied[i] = occupancy[0][i] | occupancy[1][i];
+            empty[i] = onBoard[i] & ~occupied[i];
+        }
+    }
+
+    @Override
+    void place(ChessPiece piece, int id){
+        int bit = bitOf[id];
+        set(pieces[piece.side.toInt()][piece.type.index], bit);
+        set(occupancy[piece.side.toInt()], bit);
+        occupant[bit] = piece;
+    }
+
+    @Override
+    void lift(ChessPiece piece, int id){
+        int bit = bitOf[id];
+        clear(pieces[piece.side.toInt()][piece.type.index], bit);
+        clear(occupancy[piece.side.toInt()], bit);
+        occupant[bit] = null;
+    }
+
+    /**
+     * Squares a piece can move to, without considering the own king.
+     * @param piece    Piece to move
+     * @param dst      Destination bitboard
+     */
+    void targets(ChessPiece piece, long[] dst){
+        int side = piece.side.toInt(), from = bitOf[piece.location];
+        prepare();
+        for(int i = 0; i < WORDS; i++){
+            single[i] = 0;
+            dst[i] = 0;
+        }
+        set(single, from);
+
+        switch (piece.type){
+            case PAWN:
+                int forward = piece.side == Side.WHITE ? -1 : 1;
+                spread(single, -1, forward, onBoard, shifted, dst);
+                spread(single, 1, forward, onBoard, shifted, dst);
+                for(int i = 0; i < WORDS; i++)  dst[i] &= occupancy[1 - side][i];
+
+                shift(single, 0, forward, ray);
+                for(int i = 0; i < WORDS; i++)  ray[i] &= empty[i];
+                if(!piece.moved){
+                    shift(ray, 0, forward, hop);
+                    for(int i = 0; i < WORDS; i++)  ray[i] |= hop[i] & empty[i];
+                }
+                for(int i = 0; i < WORDS; i++)  dst[i] |= ray[i];
+                return;
+            case KNIGHT:
+                or(dst, knight[from]);
+                break;
+            case KING:
+                or(dst, king[from]);
+                break;
+            case ROOK:
+            case BISHOP:
+            case QUEEN:
+            case TURNER:
+                for(Direction direction : Direction.ALL){
+                    if(slidesIn(piece, direction)){
+                        orRay(dst, direction, from, nearestBlocker(direction, from));
+                    }
+                }
+                break;
+            case CANNON:
+                for(Direction direction : Direction.ORTHOGONAL){
+                    int screen = nearestBlocker(direction, from);
+                    orRay(dst, direction, from, screen);
+                    if(screen == -1)    continue;
+
+                    int target = nearestBlocker(direction, screen);
+                    orRay(dst, direction, screen, target);
+                    if(target != -1 && occupant[target].type == PieceType.KING){
+                        clear(dst, target);
+                    }
+                }
+                break;
+        }
+
+        for(int i = 0; i < WORDS; i++)  dst[i] &= ~occupancy[side][i];
+    }
+
+    private static void or(long[] dst, long[] src){
+        for(int i = 0; i < WORDS; i++)  dst[i] |= src[i];
+    }
+
+    /**
+     * Find the nearest occupied square on a ray.
+     * @param direction    Direction of the ray
+     * @param from         Bit the ray starts from, exclusive
+     * @return  Bit of the nearest piece, -1 if the ray is empty
+     */
+    private int nearestBlocker(Direction direction, int from){
+        long[] line = rays[direction.ordinal()][from];
+        for(int i = 0; i < WORDS; i++){
+            ray[i] = line[i] & (occupancy[0][i] | occupancy[1][i]);
+        }
+        // ids grow towards E and S
+        return direction.dx + direction.dy * STRIDE > 0 ? lowestBit(ray) : highestBit(ray);
+    }
+
+    /**
+     * OR the squares of a ray into a bitboard.
+     * @param dst          Destination bitboard
+     * @param direction    Direction of the ray
+     * @param from         Bit the ray starts from, exclusive
+     * @param stop         Bit the ray stops at, inclusive, -1 to run to the edge
+     */
+    private void orRay(long[] dst, Direction direction, int from, int stop){
+        long[] line = rays[direction.ordinal()][from];
+        if(stop == -1){
+            or(dst, line);
+            return;
+        }
+        long[] beyond = rays[direction.ordinal()][stop];
+        for(int i = 0; i < WORDS; i++)  dst[i] |= line[i] & ~beyond[i];
+    }
+
+    /**
+     * Check if a sliding piece can move in a direction.
+     * @param piece        Rook, Bishop, Queen or Turner
+     * @param direction    Direction of the movement
+     * @return  True if it can slide
+     */
+    private static boolean slidesIn(ChessPiece piece, Direction direction){
+        boolean diagonal = direction.dx != 0 && direction.dy != 0;
+        switch (piece.type){
+            case ROOK:      return !diagonal;
+            case BISHOP:    return diagonal;
+            case QUEEN:     return true;
+            case TURNER:    return !diagonal && direction != piece.previousDirection;
+        }
+        return false;
+    }
+
+    /**
+     * Count the pieces strictly between two squares on a ray.
+     * @param direction    Direction from `from` to `to`
+     * @param from         Bit of the origin
+     * @param to           Bit of the destination
+     * @return  Number of pieces in between
+     */
+    private int countBetween(Direction direction, int from, int to){
+        long[] outer = rays[direction.ordinal()][from], inner = rays[direction.ordinal()][to];
+        int count = 0;
+        for(int i = 0; i < WORDS; i++){
+            count += Long.bitCount(outer[i] & ~inner[i] & (occupancy[0][i] | occupancy[1][i]));
+        }
+        // the destination itself is part of the outer ray
+        return test(occupancy[0], to) || test(occupancy[1], to) ? count - 1 : count;
+    }
+
+    @Override
+    boolean isMoveLegal(ChessPiece piece, int to){
+        int from = bitOf[piece.location], target = bitOf[to], side = piece.side.toInt();
+        if(from == target || test(occupancy[side], target))    return false;
+
+        boolean capture = test(occupancy[1 - side], target);
+        int dx = target % STRIDE - from % STRIDE, dy = target / STRIDE - from / STRIDE;
+
+        switch (piece.type){
+            case PAWN:
+                int forward = piece.side == Side.WHITE ? -1 : 1;
+                if(dy == forward){
+                    return capture ? Math.abs(dx) == 1 : dx == 0;
+                }
+                return dy == 2 * forward && dx == 0 && !capture && !piece.moved
+                        && !test(occupancy[0], from + forward * STRIDE) && !test(occupancy[1], from + forward * STRIDE);
+            case KNIGHT:
+                return test(knight[from], target);
+            case KING:
+                return test(king[from], target);
+        }
+
+        Direction direction = Direction.of(dx, dy);
+        if(direction == null)   return false;
+
+        if(piece.type == PieceType.CANNON){
+            if(direction.dx != 0 && direction.dy != 0)  return false;
+            int between = countBetween(direction, from, target);
+            return between == 0 || (between == 1 && (!capture || occupant[target].type != PieceType.KING));
+        }
+        return slidesIn(piece, direction) && countBetween(direction, from, target) == 0;
+    }
+
+    @Override
+    void addMoves(ChessPiece piece, MoveList moves){
+        targets(piece, result);
+        for(int i = 0; i < WORDS; i++){
+            for(long word = result[i]; word != 0; word &= word - 1){
+                int bit = i * 64 + Long.numberOfTrailingZeros(word);
+                moves.add(Move.encode(piece.location, bit / STRIDE * dimension + bit % STRIDE));
+            }
+        }
+    }
+
+    @Override
+    ChessPiece findAttacker(Side side, int id){
+        long[][] own = pieces[side.toInt()];
+        int bit = bitOf[id];
+
+        for(int i = 0; i < WORDS; i++){
+            result[i] = knight[bit][i] & own[PieceType.KNIGHT.index][i]
+                    | king[bit][i] & own[PieceType.KING.index][i];
+        }
+        if(!isEmpty(result))    return occupant[lowestBit(result)];
+
+        // a pawn attacks forward, so look backwards from the target
+        int x = bit % STRIDE, behind = bit + (side == Side.WHITE ? STRIDE : -STRIDE);
+        if(behind >= 0 && behind < BITS){
+            if(x > 0 && test(own[PieceType.PAWN.index], behind - 1))    return occupant[behind - 1];
+            if(x < STRIDE - 1 && test(own[PieceType.PAWN.index], behind + 1))   return occupant[behind + 1];
+        }
+
+        long[] sliders = single;
+        for(Direction direction : Direction.ALL){
+            boolean diagonal = direction.dx != 0 && direction.dy != 0;
+            long[] line = rays[direction.ordinal()][bit];
+            for(int i = 0; i < WORDS; i++){
+                sliders[i] = own[PieceType.QUEEN.index][i] | (diagonal
+                        ? own[PieceType.BISHOP.index][i]
+                        : own[PieceType.ROOK.index][i] | own[PieceType.CANNON.index][i] | own[PieceType.TURNER.index][i]);
+                sliders[i] &= line[i];
+            }
+            if(isEmpty(sliders))    continue;
+
+            int blocker = nearestBlocker(direction, bit);
+            if(!test(sliders, blocker)) continue;
+
+            // hopping Cannons cannot capture a king, and Turners cannot attack along their last direction
+            ChessPiece piece = occupant[blocker];
+            if(piece.type != PieceType.TURNER || piece.previousDirection != direction.opposite()){
+                return piece;
+            }
+        }
+        return null;
+    }
+}
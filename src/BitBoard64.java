@@ -0,0 +1,236 @@
+/**
+ * BitBoard for the standard 8x8 board, one long per side and PieceType.
+ *
+ * Bit n stands for location id n, so ids never need to be converted.
+ * Sliding attacks are computed with hyperbola quintessence on the line masks
+ * of a square, and Cannon hops by scanning the rays beyond the first blocker.
+ */
+public class BitBoard64 extends BitBoard {
+    static final int DIMENSION = 8;
+    static final int SQUARES = DIMENSION * DIMENSION;
+
+    long[][] pieces = new long[2][PieceType.values().length];  /**< Pieces by side and type */
+    long[] occupancy = new long[2];                             /**< All pieces of a side */
+    ChessPiece[] occupant = new ChessPiece[SQUARES];            /**< Piece on each square */
+
+    static final long[] KNIGHT = new long[SQUARES];                 /**< Knight targets */
+    static final long[] KING = new long[SQUARES];                   /**< King targets */
+    static final long[][] PAWN_ATTACKS = new long[2][SQUARES];      /**< Pawn captures by side */
+    static final long[][] RAYS = new long[Direction.values().length][SQUARES];  /**< Squares in a direction, exclusive, empty for NONE */
+    static final long[] ORTHOGONAL_LINES = new long[2 * SQUARES];   /**< Rank and file of a square, exclusive */
+    static final long[] DIAGONAL_LINES = new long[2 * SQUARES];     /**< Both diagonals of a square, exclusive */
+
+    static {
+        for(int id = 0; id < SQUARES; id++){
+            int x = id % DIMENSION, y = id / DIMENSION;
+
+            for(Direction direction : Direction.ALL){
+                KING[id] |= bit(x + direction.dx, y + direction.dy);
+                for(int step = 1; isInside(x + step * direction.dx, y + step * direction.dy); step++){
+                    RAYS[direction.ordinal()][id] |= bit(x + step * direction.dx, y + step * direction.dy);
+                }
+            }
+            for(int dx = -2; dx <= 2; dx++){
+                for(int dy = -2; dy <= 2; dy++){
+                    if(dx != 0 && dy != 0 && Math.abs(dx) != Math.abs(dy)){
+                        KNIGHT[id] |= bit(x + dx, y + dy);
+                    }
+                }
+            }
+            PAWN_ATTACKS[Side.BLACK.toInt()][id] = bit(x - 1, y + 1) | bit(x + 1, y + 1);
+            PAWN_ATTACKS[Side.WHITE.toInt()][id] = bit(x - 1, y - 1) | bit(x + 1, y - 1);
+
+            ORTHOGONAL_LINES[2 * id] = RAYS[Direction.E.ordinal()][id] | RAYS[Direction.W.ordinal()][id];
+            ORTHOGONAL_LINES[2 * id + 1] = RAYS[Direction.N.ordinal()][id] | RAYS[Direction.S.ordinal()][id];
+            DIAGONAL_LINES[2 * id] = RAYS[Direction.NE.ordinal()][id] | RAYS[Direction.SW.ordinal()][id];
+            DIAGONAL_LINES[2 * id + 1] = RAYS[Direction.NW.ordinal()][id] | RAYS[Direction.SE.ordinal()][id];
+        }
+    }
+
+    BitBoard64(){
+        super(DIMENSION);
+    }
+
+    private static boolean isInside(int x, int y){
+        return x >= 0 && x < DIMENSION && y >= 0 && y < DIMENSION;
+    }
+
+    /**
+     * Get the bit of a coordinate.
+     * @param x    x
+     * @param y    y
+     * @return  A single bit, 0 if outside of the board
+     */
+    private static long bit(int x, int y){
+        return isInside(x, y) ? 1L << (y * DIMENSION + x) : 0;
+    }
+
+    @Override
+    void place(ChessPiece piece, int id){
+        long bit = 1L << id;
+        pieces[piece.side.toInt()][piece.type.index] |= bit;
+        occupancy[piece.side.toInt()] |= bit;
+        occupant[id] = piece;
+    }
+
+    @Override
+    void lift(ChessPiece piece, int id){
+        long bit = ~(1L << id);
+        pieces[piece.side.toInt()][piece.type.index] &= bit;
+        occupancy[piece.side.toInt()] &= bit;
+        occupant[id] = null;
+    }
+
+    /**
+     * Attacks of a slider along one line with hyperbola quintessence.
+     * @param occupied    All occupied squares
+     * @param id          Square of the slider
+     * @param line        Line through the square, excluding the square itself
+     * @return  Squares up to and including the first blocker on both sides
+     */
+    private static long lineAttacks(long occupied, int id, long line){
+        long slider = 1L << id;
+        long forward = occupied & line;
+        long reverse = Long.reverse(forward);
+        forward -= slider;
+        reverse -= Long.reverse(slider);
+        return (forward ^ Long.reverse(reverse)) & line;
+    }
+
+    static long rookAttacks(long occupied, int id){
+        return lineAttacks(occupied, id, ORTHOGONAL_LINES[2 * id]) | lineAttacks(occupied, id, ORTHOGONAL_LINES[2 * id + 1]);
+    }
+
+    static long bishopAttacks(long occupied, int id){
+        return lineAttacks(occupied, id, DIAGONAL_LINES[2 * id]) | lineAttacks(occupied, id, DIAGONAL_LINES[2 * id + 1]);
+    }
+
+    /**
+     * Nearest occupied square of a ray.
+     * @param direction    Direction of the ray
+     * @param blockers     Occupied squares on the ray
+     * @return  Location id of the nearest blocker
+     */
+    private static int nearest(Direction direction, long blockers){
+        // ids grow towards E and S
+        return direction.dx + DIMENSION * direction.dy > 0
+                ? Long.numberOfTrailingZeros(blockers)
+                : 63 - Long.numberOfLeadingZeros(blockers);
+    }
+
+    /**
+     * Squares a Cannon can reach by hopping over exactly one piece.
+     * @param occupied    All occupied squares
+     * @param id          Square of the Cannon
+     * @return  Squares beyond the screen, up to and including the next piece
+     */
+    private long hops(long occupied, int id){
+        long result = 0;
+        for(Direction direction : Direction.ORTHOGONAL){
+            long blockers = RAYS[direction.ordinal()][id] & occupied;
+            if(blockers == 0)   continue;
+
+            long beyond = RAYS[direction.ordinal()][nearest(direction, blockers)];
+            long target = beyond & occupied;
+            if(target != 0){
+                int targetId = nearest(direction, target);
+                beyond &= ~RAYS[direction.ordinal()][targetId];
+                if(occupant[targetId].type == PieceType.KING){
+                    beyond &= ~(1L << targetId);
+                }
+            }
+            result |= beyond;
+        }
+        return result;
+    }
+
+    /**
+     * Squares a piece can move to, without considering the own king.
+     * @param piece    Piece to move
+     * @return  Destination squares
+     */
+    long targets(ChessPiece piece){
+        int id = piece.location, side = piece.side.toInt();
+        long occupied = occupancy[0] | occupancy[1];
+        long result;
+
+        switch (piece.type){
+            case PAWN:
+                int forward = piece.side == Side.WHITE ? -DIMENSION : DIMENSION;
+                result = PAWN_ATTACKS[side][id] & occupancy[1 - side];
+                int next = id + forward;
+                if(next >= 0 && next < SQUARES && (occupied & 1L << next) == 0){
+                    result |= 1L << next;
+                    next += forward;
+                    if(!piece.moved && next >= 0 && next < SQUARES && (occupied & 1L << next) == 0){
+                        result |= 1L << next;
+                    }
+                }
+                return result;
+            case KNIGHT:
+                result = KNIGHT[id];
+                break;
+            case KING:
+                result = KING[id];
+                break;
+            case ROOK:
+                result = rookAttacks(occupied, id);
+                break;
+            case BISHOP:
+                result = bishopAttacks(occupied, id);
+                break;
+            case QUEEN:
+                result = rookAttacks(occupied, id) | bishopAttacks(occupied, id);
+                break;
+            case TURNER:
+                result = rookAttacks(occupied, id) & ~RAYS[piece.previousDirection.ordinal()][id];
+                break;
+            case CANNON:
+                result = rookAttacks(occupied, id) | hops(occupied, id);
+                break;
+            default:
+                result = 0;
+        }
+        return result & ~occupancy[side];
+    }
+
+    @Override
+    boolean isMoveLegal(ChessPiece piece, int to){
+        return (targets(piece) >>> to & 1) != 0;
+    }
+
+    @Override
+    void addMoves(ChessPiece piece, MoveList moves){
+        for(long targets = targets(piece); targets != 0; targets &= targets - 1){
+            moves.add(Move.encode(piece.location, Long.numberOfTrailingZeros(targets)));
+        }
+    }
+
+    @Override
+    ChessPiece findAttacker(Side side, int id){
+        long[] own = pieces[side.toInt()];
+        long occupied = occupancy[0] | occupancy[1];
+
+        long attackers = KNIGHT[id] & own[PieceType.KNIGHT.index]
+                | KING[id] & own[PieceType.KING.index]
+                | PAWN_ATTACKS[side.opposite().toInt()][id] & own[PieceType.PAWN.index]
+                | bishopAttacks(occupied, id) & (own[PieceType.BISHOP.index] | own[PieceType.QUEEN.index]);
+
+        // Cannons hopping over a screen cannot capture a king, only direct lines count
+        long lines = rookAttacks(occupied, id);
+        attackers |= lines & (own[PieceType.ROOK.index] | own[PieceType.QUEEN.index] | own[PieceType.CANNON.index]);
+
+        if(attackers != 0){
+            return occupant[Long.numberOfTrailingZeros(attackers)];
+        }
+
+        // Turners cannot attack along the direction they moved in last time
+        for(long turners = lines & own[PieceType.TURNER.index]; turners != 0; turners &= turners - 1){
+            ChessPiece turner = occupant[Long.numberOfTrailingZeros(turners)];
+            if((RAYS[turner.previousDirection.ordinal()][turner.location] >>> id & 1) == 0){
+                return turner;
+            }
+        }
+        return null;
+    }
+}
@@ -3,6 +3,7 @@ import javax.swing.border.LineBorder;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.IOException;
 
 /**
  * GUI Drawer. Handles drawing of the GUI.
@@ -18,10 +19,24 @@ public class BoardDrawer {
     JLabel statusText;
     ScoreBar scores;
     ScoreKeeper scoreKeeper;
+    boolean[] computer = new boolean[2];    /**< Sides played by the computer */
+    Engine engine;                          /**< Plays for the computer, null until first needed, see #getEngine */
+    boolean thinking;                       /**< True while the engine searches in the background */
+    boolean ponder = true;                  /**< Let the engine think on the human's time */
+    Thread pondering;                       /**< Search of the position after the expected reply, null if none */
+    long ponderHash;                        /**< Hash of the position being pondered */
+    int ponderMoves;                        /**< Move count of the position being pondered */
+    volatile int ponderResult;              /**< Best move found by the last ponder search */
+    AnalysisService analysis = new AnalysisService();
+    AnalysisService.Analysis analyzed;      /**< Latest analysis delivered, may be of an earlier position */
+    long requestedHash;                     /**< Hash of the position of the latest analysis request */
+    int requestedMoves = -1;                /**< Move count of the position of the latest analysis request */
+    Location hinting;                       /**< Location whose moves are hinted, null if none */
 
     BoardDrawer(SquareBoard gameboard, String title){
         this.gameboard = gameboard;
         this.scoreKeeper = gameboard.rule.scoreKeeper;
+        gameboard.rule.deferStatusOfClicks(true);
 
         try{ UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName()); } catch(Exception e) {
             //silently ignore
@@ -169,6 +184,7 @@ public class BoardDrawer {
             @Override
             public void mouseClicked(MouseEvent e) {
                 super.mouseClicked(e);
+                stopPondering();
                 if(gameboard.undo(1)) {
                     update();
                 }else{
@@ -208,6 +224,7 @@ public class BoardDrawer {
         JMenu gameMenu = new JMenu("Game");
         JMenuItem undo = new JMenuItem("Undo");
         undo.addActionListener(e -> {
+            stopPondering();
             gameboard.undo(1);
             update();
         });
@@ -222,6 +239,36 @@ public class BoardDrawer {
 
         gameMenu.add(undo);
         gameMenu.add(customPieces);
+        gameMenu.addSeparator();
+        for(Side side : new Side[]{Side.WHITE, Side.BLACK}){
+            JCheckBoxMenuItem computerSide = new JCheckBoxMenuItem("Computer Plays " + side);
+            computerSide.addActionListener(evt -> {
+                computer[side.toInt()] = ((JCheckBoxMenuItem) evt.getSource()).isSelected();
+                update();
+            });
+            gameMenu.add(computerSide);
+        }
+        JCheckBoxMenuItem ponderItem = new JCheckBoxMenuItem("Computer Ponders", ponder);
+        ponderItem.addActionListener(evt -> {
+            ponder = ((JCheckBoxMenuItem) evt.getSource()).isSelected();
+            if(!ponder) stopPondering();
+        });
+        gameMenu.add(ponderItem);
+        gameMenu.addSeparator();
+        JMenuItem openBook = new JMenuItem("Open Book...");
+        openBook.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            if(chooser.showOpenDialog(window) != JFileChooser.APPROVE_OPTION)   return;
+            try {
+                getEngine().book = OpeningBook.open(chooser.getSelectedFile());
+            }catch(IOException ex){
+                JOptionPane.showMessageDialog(null, "Cannot open the book: " + ex.getMessage(), "Open Book", JOptionPane.WARNING_MESSAGE);
+            }
+        });
+        JMenuItem bookMoves = new JMenuItem("Book Moves");
+        bookMoves.addActionListener(e -> showBookMoves());
+        gameMenu.add(openBook);
+        gameMenu.add(bookMoves);
         menubar.add(gameMenu);
         window.setJMenuBar(menubar);
     }
@@ -230,10 +277,12 @@ public class BoardDrawer {
      * Update the content in the GUI based on current data.
      */
     public void update(){
+        analyze();
+
         // update pieces graphics
         for(int x = 0; x < gameboard.dimension; x++){
             for(int y = 0; y < gameboard.dimension; y++){
-                ChessPiece piece = gameboard.grid[x][y];
+                ChessPiece piece = gameboard.getPieceAtLocation(y * gameboard.dimension + x);
                 Grid grid = tiles[x][y];
                 if(piece != null) {
                     grid.setText(String.valueOf(piece.getSymbol()));
@@ -258,6 +307,8 @@ public class BoardDrawer {
         switch (gameboard.rule.gameStatus.status){
             case NOT_ENDED:
                 setStatusText(scoreKeeper.getPlayer(gameboard.getTurn()).name + "'s Turn");
+                // the game may have ended, which is only known once the position is analysed
+                if(analyzed != null && analyzed.isOf(gameboard))    letComputerMove();
                 break;
             case CHECKMATE:
                 msg = "Checkmate! " + scoreKeeper.getPlayer(gameboard.rule.gameStatus.winningSide).name + " wins!";
@@ -280,12 +331,182 @@ public class BoardDrawer {
         }
     }
 
+    /**
+     * Take check and the end of the game from the analysis of the current position,
+     * or request the analysis, which updates the GUI once it arrives. Moves picked in
+     * the GUI leave both to this, so neither runs on the event dispatch thread.
+     */
+    private void analyze(){
+        if(analyzed != null && analyzed.isOf(gameboard)){
+            gameboard.sideInCheck = analyzed.check ? analyzed.turn : null;
+            GameStatus status = gameboard.rule.gameStatus;
+            if(status.status == GameStatus.EndGameReason.NOT_ENDED){
+                if(analyzed.status == GameStatus.EndGameReason.CHECKMATE)       status.setCheckmate(analyzed.turn.opposite());
+                else if(analyzed.status == GameStatus.EndGameReason.STALEMATE)  status.setStalemate();
+            }
+            return;
+        }
+
+        // already on its way
+        if(requestedHash == gameboard.hash() && requestedMoves == gameboard.move)   return;
+        requestedHash = gameboard.hash();
+        requestedMoves = gameboard.move;
+        analysis.request(gameboard.rule, result -> {
+            analyzed = result;
+            if(!result.isOf(gameboard)) return;
+            update();
+            if(hinting != null) getGrid(hinting).hintMovableLocations();
+        });
+    }
+
+    /**
+     * Start a background search if the computer plays the side to move. The move is
+     * played on the event dispatch thread, unless the position changed meanwhile.
+     *
+     * If the engine was pondering the position, its search goes on with the usual time
+     * counted from when pondering started, so a human slower than that gets the reply
+     * at once. Otherwise pondering is stopped first, leaving what it found in the
+     * transposition table for the new search.
+     */
+    private void letComputerMove(){
+        if(thinking || !computer[gameboard.getTurn().toInt()])  return;
+
+        thinking = true;
+        Engine engine = getEngine();
+        setStatusText(scoreKeeper.getPlayer(gameboard.getTurn()).name + " is thinking...");
+        NormalGameRule position = gameboard.rule.copy();
+        long hash = gameboard.hash();
+        int moves = gameboard.move;
+        Thread ponderThread = pondering;
+        boolean hit = ponderThread != null && ponderHash == hash && ponderMoves == moves;
+        pondering = null;
+
+        Thread thread = new Thread(() -> {
+            int move;
+            if(hit){
+                awaitPondering(ponderThread, () -> engine.ponderHit(Game.COMPUTER_MILLIS));
+                move = ponderResult;
+            }else{
+                awaitPondering(ponderThread, engine::stop);
+                move = engine.think(position, Engine.MAX_PLY - 1, Game.COMPUTER_MILLIS);
+            }
+            SwingUtilities.invokeLater(() -> {
+                thinking = false;
+                if(gameboard.hash() == hash && gameboard.move == moves && move != Move.NONE){
+                    // check and the end of the game are left to the analysis
+                    gameboard.move(gameboard.getPieceAtLocation(Move.getFrom(move)), gameboard.getLoc(Move.getTo(move)), false, false);
+                    startPondering();
+                }
+                update();
+            });
+        }, "Engine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Use an Engine for the computer's moves and pondering, such as the one of the
+     * console game, so both share its options and transposition table.
+     * @param engine    Engine to use
+     */
+    public void setEngine(Engine engine){
+        stopPondering();
+        this.engine = engine;
+    }
+
+    /**
+     * Get the Engine, creating one with a 64 MB table the first time the computer plays.
+     * @return  The engine
+     */
+    private Engine getEngine(){
+        if(engine == null)  engine = new Engine(64);
+        return engine;
+    }
+
+    /**
+     * Search the position after the reply the engine expects, with no time limit, while
+     * the human thinks.
+     */
+    private void startPondering(){
+        if(engine == null)  return;
+        int reply = engine.ponderMove;
+        if(!ponder || reply == Move.NONE || gameboard.rule.gameStatus.status != GameStatus.EndGameReason.NOT_ENDED
+                || computer[gameboard.getTurn().toInt()]){
+            return;
+        }
+
+        NormalGameRule position = gameboard.rule.copy();
+        position.board.makeMove(reply);
+        ponderHash = position.board.hash();
+        ponderMoves = position.board.move;
+        pondering = new Thread(() -> ponderResult = engine.think(position, Engine.MAX_PLY - 1, 0), "Ponder");
+        pondering.setDaemon(true);
+        pondering.start();
+    }
+
+    /**
+     * Stop pondering once the position it expected can no longer come. A stopped
+     * search returns within a few nodes, so this does not hold up the GUI.
+     */
+    private void stopPondering(){
+        if(pondering == null)   return;
+        awaitPondering(pondering, engine::stop);
+        pondering = null;
+    }
+
+    /**
+     * Wait for a ponder search to end, repeating an action on the engine until it does,
+     * since the search may not have started yet when the action is first taken.
+     * @param ponderThread    Thread of the ponder search, may be null
+     * @param action          Engine#stop or Engine#ponderHit
+     */
+    private static void awaitPondering(Thread ponderThread, Runnable action){
+        while(ponderThread != null && ponderThread.isAlive()){
+            action.run();
+            try {
+                ponderThread.join(10);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Show the book moves of the current position and how they did.
+     */
+    private void showBookMoves(){
+        OpeningBook book = engine != null ? engine.book : null;
+        String msg;
+        if(book == null){
+            msg = "No book is open.";
+        }else if(book.dimension != gameboard.dimension){
+            msg = "The book is for a board of dimension " + book.dimension + ".";
+        }else{
+            StringBuilder lines = new StringBuilder();
+            for(OpeningBook.Entry entry : book.lookup(gameboard.hash())){
+                lines.append(entry.toString(gameboard.dimension)).append('\n');
+            }
+            msg = lines.length() == 0 ? "This position is not in the book." : lines.toString();
+        }
+        JOptionPane.showMessageDialog(null, msg, "Book Moves", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    /**
+     * Check if a human may pick pieces now.
+     * @return  False while the computer plays the side to move
+     */
+    private boolean isHumanTurn(){
+        return !thinking && !computer[gameboard.getTurn().toInt()];
+    }
+
     public void initiateNewGame(boolean switchSides){
         if(switchSides) {
             // switch players
             gameboard.rule.scoreKeeper.switchSide();
         }
         // reset board
+        stopPondering();
         gameboard.resetPosition();
         // update gui
         update();
@@ -335,9 +556,11 @@ public class BoardDrawer {
 
         /**
          * Hint a grid.
+         * @param losing    True to warn that moving here loses material
          */
-        public void hint(){
-            this.setBorder(new LineBorder(new Color(76, 175, 80), 2));
+        public void hint(boolean losing){
+            this.setBorder(new LineBorder(losing ? new Color(244, 67, 54) : new Color(76, 175, 80), 2));
+            this.setToolTipText(losing ? "Loses material" : null);
             this.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
         }
 
@@ -346,6 +569,7 @@ public class BoardDrawer {
          */
         public void unhint(){
             this.setBorder(null);
+            this.setToolTipText(null);
             this.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
         }
 
@@ -355,13 +579,14 @@ public class BoardDrawer {
         private class GridMouseEvent extends MouseAdapter{
             public void mousePressed(MouseEvent e){
                 Grid grid = (Grid) e.getSource();
+                if(!isHumanTurn())  return;
 
                 NormalGameRule.ConsiderResult result = gameboard.rule.handleClickEvents(grid.location);
                 if(result.success) {
                     switch (result.state) {
                         case PICKING_PRIMARY:
                             grid.highlight();
-                            grid.hintMovableLocations(gameboard.getPieceAtLocation(grid.location));
+                            grid.hintMovableLocations();
                             break;
 
                         case PICKING_SECONDARY:
@@ -375,7 +600,7 @@ public class BoardDrawer {
                                 grid.unhintAllLocations();
                                 getGrid(result.origin).unhighlight();
                                 grid.highlight();
-                                grid.hintMovableLocations(gameboard.getPieceAtLocation(grid.location));
+                                grid.hintMovableLocations();
                             } else {
                                 // origin included, reset origin border
                                 getGrid(result.origin).unhighlight();
@@ -388,18 +613,23 @@ public class BoardDrawer {
             }
         }
 
-        private void hintMovableLocations(ChessPiece piece){
-            for(int x = 0; x < gameboard.dimension; x++){
-                for(int y = 0; y < gameboard.dimension; y++){
-                    Location location = gameboard.getLoc(x, y);
-                    if(gameboard.move(piece, location, true)){
-                        getGrid(location).hint();
-                    }
+        /**
+         * Hint the moves of the piece on the grid, from the analysis of the position.
+         * Until the analysis arrives nothing is hinted, it hints them itself.
+         */
+        private void hintMovableLocations(){
+            hinting = location;
+            if(analyzed == null || !analyzed.isOf(gameboard))   return;
+            for(int i = 0; i < analyzed.legal.length; i++){
+                int move = analyzed.legal[i];
+                if(Move.getFrom(move) == location.id){
+                    getGrid(gameboard.getLoc(Move.getTo(move))).hint(analyzed.losing[i]);
                 }
             }
         }
 
         private void unhintAllLocations(){
+            hinting = null;
             for(int x = 0; x < gameboard.dimension; x++){
                 for(int y = 0; y < gameboard.dimension; y++){
                     Location location = gameboard.getLoc(x, y);
@@ -0,0 +1,193 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Precomputed geometry of a square board, built once per dimension and shared by
+ * every board of that size.
+ *
+ * Location ids follow SquareBoard, id = y * dimension + x. Rays are listed from the
+ * nearest square outwards, so the squares between two aligned locations are the
+ * first distance - 1 entries of the ray from one towards the other.
+ *
+ * The geometry also describes the padded mailbox layout of SquareBoard, 10x12 for an
+ * 8x8 board: every row gets two extra columns and two extra rows are added at the
+ * top and the bottom, all holding the OFF_BOARD sentinel. Stepping off the board by
+ * any king or knight offset lands on a sentinel, so walks need no bounds checks.
+ */
+public class BoardGeometry {
+    private static final Map<Integer, BoardGeometry> cache = new HashMap<>();
+
+    private static final byte UNALIGNED = (byte) Direction.NONE.ordinal();
+    private static final byte KNIGHT_JUMP = 1 << 4;     /**< Relation flag of a knight jump */
+    private static final byte ADJACENT = 1 << 5;        /**< Relation flag of neighbouring squares */
+    private static final byte DIRECTION_MASK = 0xF;
+
+    int dimension;      /**< Dimension of the board */
+    int squares;        /**< Number of locations */
+    int[] xOf, yOf;     /**< Coordinates of a location id */
+    Location[] locations;   /**< Location of every id, see SquareBoard#getLoc(int) */
+    int[][] knight;     /**< Knight targets of a location */
+    int[][] king;       /**< King targets of a location */
+    int[][][] rays;     /**< Locations in a direction by Direction ordinal, nearest first, empty for NONE */
+    byte[] relations;   /**< Direction ordinal and flags for every (from, to) pair */
+
+    static final int BORDER_ROWS = 2;   /**< Sentinel rows above and below the board in the mailbox */
+    int stride;         /**< Row length of the mailbox, with a sentinel column on each side */
+    int cells;          /**< Length of the mailbox */
+    int[] cellOf;       /**< Mailbox index of a location id */
+    int[] idOf;         /**< Location id of a mailbox index, -1 for sentinels */
+    int[] offsets;      /**< Mailbox step of a direction by Direction ordinal, 0 for NONE */
+    int[] knightOffsets;    /**< Mailbox steps of a knight */
+
+    private BitBoard256.Masks wideMasks;    /**< Bitboard masks of the same geometry, built on demand */
+
+    /**
+     * Get the geometry of a dimension, building it on first use.
+     * @param dimension    Dimension of the board
+     * @return  A shared BoardGeometry
+     */
+    static synchronized BoardGeometry forDimension(int dimension){
+        BoardGeometry geometry = cache.get(dimension);
+        if(geometry == null){
+            geometry = new BoardGeometry(dimension);
+            cache.put(dimension, geometry);
+        }
+        return geometry;
+    }
+
+    private BoardGeometry(int dimension){
+        this.dimension = dimension;
+        this.squares = dimension * dimension;
+
+        xOf = new int[squares];
+        yOf = new int[squares];
+        for(int id = 0; id < squares; id++){
+            xOf[id] = id % dimension;
+            yOf[id] = id / dimension;
+        }
+        locations = new Location[squares];
+        for(int id = 0; id < squares; id++){
+            locations[id] = new Location(xOf[id], yOf[id], dimension);
+        }
+
+        stride = dimension + 2;
+        cells = stride * (dimension + 2 * BORDER_ROWS);
+        cellOf = new int[squares];
+        idOf = new int[cells];
+        Arrays.fill(idOf, -1);
+        for(int id = 0; id < squares; id++){
+            cellOf[id] = (yOf[id] + BORDER_ROWS) * stride + xOf[id] + 1;
+            idOf[cellOf[id]] = id;
+        }
+
+        offsets = new int[Direction.values().length];
+        for(Direction direction : Direction.values()){
+            // with the stride as width, a step lands on the sentinel column instead of wrapping
+            offsets[direction.ordinal()] = direction.actions.next(0, stride);
+        }
+        knightOffsets = new int[8];
+        int jumps = 0;
+        for(int dx = -2; dx <= 2; dx++){
+            for(int dy = -2; dy <= 2; dy++){
+                if(dx != 0 && dy != 0 && Math.abs(dx) != Math.abs(dy)){
+                    knightOffsets[jumps++] = dy * stride + dx;
+                }
+            }
+        }
+
+        knight = new int[squares][];
+        king = new int[squares][];
+        rays = new int[Direction.values().length][squares][];
+        relations = new byte[squares * squares];
+        Arrays.fill(relations, UNALIGNED);
+
+        int[] buffer = new int[Math.max(8, dimension)];
+        for(int id = 0; id < squares; id++){
+            int x = xOf[id], y = yOf[id], count = 0;
+
+            for(int dx = -2; dx <= 2; dx++){
+                for(int dy = -2; dy <= 2; dy++){
+                    if(dx != 0 && dy != 0 && Math.abs(dx) != Math.abs(dy) && isInside(x + dx, y + dy)){
+                        buffer[count++] = (y + dy) * dimension + x + dx;
+                        relations[id * squares + buffer[count - 1]] |= KNIGHT_JUMP;
+                    }
+                }
+            }
+            knight[id] = Arrays.copyOf(buffer, count);
+
+            count = 0;
+            for(Direction direction : Direction.ALL){
+                if(isInside(x + direction.dx, y + direction.dy)){
+                    buffer[count++] = (y + direction.dy) * dimension + x + direction.dx;
+                }
+            }
+            king[id] = Arrays.copyOf(buffer, count);
+
+            rays[Direction.NONE.ordinal()][id] = new int[0];
+            for(Direction direction : Direction.ALL){
+                count = 0;
+                for(int cx = x + direction.dx, cy = y + direction.dy; isInside(cx, cy); cx += direction.dx, cy += direction.dy){
+                    buffer[count] = cy * dimension + cx;
+                    relations[id * squares + buffer[count]] = (byte) (direction.ordinal() | (count == 0 ? ADJACENT : 0));
+                    count++;
+                }
+                rays[direction.ordinal()][id] = Arrays.copyOf(buffer, count);
+            }
+        }
+    }
+
+    private boolean isInside(int x, int y){
+        return x >= 0 && x < dimension && y >= 0 && y < dimension;
+    }
+
+    /**
+     * Direction from one location to another.
+     * @param from    Origin id
+     * @param to      Destination id
+     * @return  Direction enum, null if not on a line or the same location
+     */
+    Direction direction(int from, int to){
+        int ordinal = relations[from * squares + to] & DIRECTION_MASK;
+        return ordinal == UNALIGNED ? null : Direction.ALL[ordinal];
+    }
+
+    /**
+     * Number of king steps between two locations.
+     * @param from    Origin id
+     * @param to      Destination id
+     * @return  Chebyshev distance
+     */
+    int distance(int from, int to){
+        return Math.max(Math.abs(xOf[to] - xOf[from]), Math.abs(yOf[to] - yOf[from]));
+    }
+
+    boolean isKnightJump(int from, int to){
+        return (relations[from * squares + to] & KNIGHT_JUMP) != 0;
+    }
+
+    boolean isAdjacent(int from, int to){
+        return (relations[from * squares + to] & ADJACENT) != 0;
+    }
+
+    /**
+     * Get the ray from a location in a direction.
+     * @param direction    Direction of the ray
+     * @param id           Origin id, exclusive
+     * @return  Location ids, nearest first
+     */
+    int[] ray(Direction direction, int id){
+        return rays[direction.ordinal()][id];
+    }
+
+    /**
+     * Get the bitboard masks of this geometry for BitBoard256.
+     * @return  Shared masks
+     */
+    synchronized BitBoard256.Masks wideMasks(){
+        if(wideMasks == null){
+            wideMasks = new BitBoard256.Masks(dimension);
+        }
+        return wideMasks;
+    }
+}
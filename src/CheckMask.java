@@ -0,0 +1,130 @@
+/**
+ * Pins and check evasions of one side, computed once per position from the
+ * AttackMap, so that pseudo legal moves can be accepted or rejected without
+ * applying them to the board.
+ *
+ * A piece is pinned when it is the only piece between its king and an enemy
+ * slider able to capture along that line, and it may only move along that line
+ * up to the pinner. Cannons pin like Rooks, since a hop can never capture a king,
+ * and a Turner does not pin along the direction it moved in last time. When in check, every move but a king move has to land on
+ * the checker or between a sliding checker and the king, and in double check
+ * only the king may move.
+ */
+public class CheckMask {
+    SquareBoard board;
+    ChessPiece king;        /**< King of the side to move */
+    int enemy;              /**< Side index of the opponent */
+    int checkers;           /**< Number of pieces giving check */
+
+    // location ids are marked with the current stamp, so nothing is cleared between positions
+    private int stamp;
+    private int[] pinned;       /**< Pinned pieces by location id */
+    private int[] evasion;      /**< Squares resolving a single check */
+    private int[] danger;       /**< Squares behind the king, attacked once it steps away */
+    private Direction[] pinDirection;   /**< Direction from the king to the pinner, by location id */
+    private int[] pinDistance;          /**< Distance from the king to the pinner, by location id */
+
+    CheckMask(SquareBoard board){
+        int squares = board.maxId + 1;
+        this.board = board;
+        pinned = new int[squares];
+        evasion = new int[squares];
+        danger = new int[squares];
+        pinDirection = new Direction[squares];
+        pinDistance = new int[squares];
+    }
+
+    /**
+     * Compute pins and evasions for a side from the current position.
+     * @param king    King of the side to move
+     */
+    void compute(ChessPiece king){
+        BoardGeometry geometry = board.geometry;
+        ChessPiece[] mailbox = board.mailbox;
+        long[] attackers = board.attacks.attackers[king.side.opposite().toInt()];
+        int kingCell = geometry.cellOf[king.location];
+
+        this.king = king;
+        enemy = king.side.opposite().toInt();
+        stamp++;
+
+        // checks
+        long mask = attackers[kingCell];
+        checkers = Long.bitCount(mask);
+        for(; mask != 0; mask &= mask - 1){
+            ChessPiece checker = board.attacks.slots[enemy][Long.numberOfTrailingZeros(mask)];
+            evasion[checker.location] = stamp;
+
+            Direction direction = geometry.direction(checker.location, king.location);
+            if(direction == null || !isSlider(checker.type))    continue;
+
+            int step = geometry.offsets[direction.ordinal()];
+            for(int cell = geometry.cellOf[checker.location] + step; cell != kingCell; cell += step){
+                evasion[geometry.idOf[cell]] = stamp;
+            }
+            // the square behind the king stays attacked once the king steps away
+            int behind = geometry.idOf[kingCell + step];
+            if(behind != -1){
+                danger[behind] = stamp;
+            }
+        }
+
+        // pins
+        for(Direction direction : Direction.ALL){
+            int step = geometry.offsets[direction.ordinal()], cell = kingCell + step;
+            while(mailbox[cell] == null)    cell += step;
+
+            ChessPiece candidate = mailbox[cell];
+            if(candidate == SquareBoard.OFF_BOARD || candidate.side != king.side)  continue;
+
+            for(cell += step; mailbox[cell] == null; cell += step);
+            ChessPiece pinner = mailbox[cell];
+            if(pinner != SquareBoard.OFF_BOARD && pinner.side != king.side && attacksAlong(pinner, direction.opposite())){
+                pinned[candidate.location] = stamp;
+                pinDirection[candidate.location] = direction;
+                pinDistance[candidate.location] = geometry.distance(king.location, pinner.location);
+            }
+        }
+    }
+
+    /**
+     * Check if a pseudo legal move keeps the own king safe.
+     * @param piece    Piece to move, of the side passed to compute
+     * @param to       Destination id
+     * @return  True if legal
+     */
+    boolean isLegal(ChessPiece piece, int to){
+        if(piece == king){
+            return board.attacks.attackers[enemy][board.geometry.cellOf[to]] == 0 && danger[to] != stamp;
+        }
+        if(checkers > 1 || (checkers == 1 && evasion[to] != stamp)){
+            return false;
+        }
+        // a pinned Cannon may not hop over its pinner either
+        return pinned[piece.location] != stamp
+                || (board.geometry.direction(king.location, to) == pinDirection[piece.location]
+                    && board.geometry.distance(king.location, to) <= pinDistance[piece.location]);
+    }
+
+    private static boolean isSlider(PieceType type){
+        return type != PieceType.PAWN && type != PieceType.KNIGHT && type != PieceType.KING;
+    }
+
+    /**
+     * Check if a piece can capture along a line with nothing in between.
+     * @param piece        Enemy piece
+     * @param direction    Direction from the piece towards the king
+     * @return  True if the piece attacks in that direction
+     */
+    private static boolean attacksAlong(ChessPiece piece, Direction direction){
+        boolean diagonal = direction.dx != 0 && direction.dy != 0;
+        switch (piece.type){
+            case QUEEN:     return true;
+            case BISHOP:    return diagonal;
+            case ROOK:
+            case CANNON:    return !diagonal;
+            case TURNER:    return !diagonal && piece.previousDirection != direction;
+        }
+        return false;
+    }
+}
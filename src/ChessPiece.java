@@ -4,6 +4,8 @@ public class ChessPiece {
     public int location;    /**< Internal location id of the piece */
     public boolean moved;   /**< Indicates if the piece has moved */
     public Direction previousDirection = Direction.NONE;
+    int slot = -1;          /**< Slot in the AttackMap of its board, -1 before it is placed */
+    int index = -1;         /**< Index in the pieces of its board, kept while it is captured, see SquareBoard#detach */
 
     /**
      * Constructor of ChessPiece.
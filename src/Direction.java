@@ -2,25 +2,58 @@
  * Universal Direction type for a SquareBoard
  */
 public enum Direction{
-    N  ((id, dimension) -> id - dimension),         /**< Top */
-    NE ((id, dimension) -> id - (dimension - 1)),   /**< Top right */
-    E  ((id, dimension) -> id + 1),                 /**< Right */
-    SE ((id, dimension) -> id + (dimension + 1)),   /**< Bottom right */
-    S  ((id, dimension) -> id + dimension),         /**< Bottom */
-    SW ((id, dimension) -> id + (dimension - 1)),   /**< Bottom left */
-    W  ((id, dimension) -> id - 1),                 /**< Left */
-    NW ((id, dimension) -> id - (dimension + 1)),   /**< Top left */
-    NONE ((id, dimension) -> id);
+    N  ( 0, -1, (id, dimension) -> id - dimension),         /**< Top */
+    NE ( 1, -1, (id, dimension) -> id - (dimension - 1)),   /**< Top right */
+    E  ( 1,  0, (id, dimension) -> id + 1),                 /**< Right */
+    SE ( 1,  1, (id, dimension) -> id + (dimension + 1)),   /**< Bottom right */
+    S  ( 0,  1, (id, dimension) -> id + dimension),         /**< Bottom */
+    SW (-1,  1, (id, dimension) -> id + (dimension - 1)),   /**< Bottom left */
+    W  (-1,  0, (id, dimension) -> id - 1),                 /**< Left */
+    NW (-1, -1, (id, dimension) -> id - (dimension + 1)),   /**< Top left */
+    NONE (0, 0, (id, dimension) -> id);
 
+    static final Direction[] ORTHOGONAL = {N, E, S, W};     /**< Directions a Rook can take */
+    static final Direction[] DIAGONAL = {NE, SE, SW, NW};   /**< Directions a Bishop can take */
+    static final Direction[] ALL = {N, NE, E, SE, S, SW, W, NW};    /**< Every direction except NONE */
+
+    int dx;     /**< Column step of the direction */
+    int dy;     /**< Row step of the direction */
     DirectionActions actions;   /**< Interface for the Direction Enum @see DirectionActions#next*/
-    Direction(DirectionActions actions){
+    Direction(int dx, int dy, DirectionActions actions){
+        this.dx = dx;
+        this.dy = dy;
         this.actions = actions;
     }
 
+    /**
+     * Get the direction pointing the other way.
+     * @return  Opposite direction, NONE stays NONE
+     */
+    Direction opposite(){
+        return this == NONE ? NONE : ALL[(ordinal() + 4) % 8];
+    }
+
+    /**
+     * Get the direction of a movement along a line.
+     * @param dx    Columns moved
+     * @param dy    Rows moved
+     * @return  Direction enum, null if the movement is not horizontal, vertical or diagonal.
+     */
+    static Direction of(int dx, int dy){
+        if((dx == 0 && dy == 0) || (dx != 0 && dy != 0 && Math.abs(dx) != Math.abs(dy))){
+            return null;
+        }
+        return LOOKUP[Integer.signum(dy) + 1][Integer.signum(dx) + 1];
+    }
+
+    private static final Direction[][] LOOKUP = {{NW, N, NE}, {W, NONE, E}, {SW, S, SE}};
+
     interface DirectionActions{
         /**
          * Get the next location id in the direction.
          * @warning This function does not check for board boundary. This only perform a simple computation based on the location id.
+         *          On the padded mailbox of a SquareBoard, pass BoardGeometry.stride as the dimension
+         *          and the step lands on an OFF_BOARD sentinel instead of wrapping around.
          * @param id    Location id
          * @param dimension    Width of the board
          * @return  Next location id in the direction
@@ -28,4 +61,3 @@ public enum Direction{
         int next(int id, int dimension);
     }
 }
-
@@ -0,0 +1,555 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Computer player searching the game tree with negamax alpha-beta and iterative deepening.
+ *
+ * The engine searches a copy of the rule it is given, with SquareBoard.makeMove and
+ * unmakeMove, so the game being played is never touched while thinking. Every
+ * depth starts from the best line of the previous one, through the transposition
+ * table, and once the time is up the unfinished depth is dropped. Moves come from
+ * NormalGameRule.generateMoves, so Cannons, Turners and any board dimension are
+ * searched like the rest of the game. Leaves are extended by a quiescence search
+ * over captures, so a score is never taken in the middle of an exchange.
+ *
+ * With more than one thread the search is Lazy SMP: helper threads search the same
+ * root on their own copies of the game, every other one a depth ahead, and share
+ * what they find only through the transposition table. The main thread alone
+ * decides the move, reports and watches the clock, and stops the helpers when done.
+ *
+ * While the position is in the opening book, if there is one, its move is played
+ * without searching, and positions covered by a Tablebase are scored from it
+ * instead of searched.
+ */
+public class Engine {
+    static final int MATE = 30000;          /**< Score of mating at the root, minus the plies needed */
+    static final int INFINITY = 32000;      /**< Bound above every score, still fits the TranspositionTable */
+    static final int MAX_PLY = 64;          /**< Deepest ply searched */
+    private static final int MATE_BOUND = MATE - MAX_PLY;
+    private static final int DELTA_MARGIN = 200;    /**< Positional gain a capture may add to its material in quiescence */
+    private static final int CHECK_NODES = 1024;    /**< Nodes between clock checks, a power of 2 */
+
+    TranspositionTable table;
+    Consumer<Report> listener;  /**< Receives a Report after every finished depth, may be null */
+    NeuralNetwork network;      /**< Evaluation network, null to evaluate with the piece-square tables */
+    OpeningBook book;           /**< Book to play from before searching, may be null */
+    Map<String, Tablebase> tablebases = new HashMap<>();    /**< Tablebases by material, see Tablebase#materialOf */
+
+    Searcher[] searchers;       /**< Search state by thread, the main thread first */
+    ExecutorService helpers;    /**< Threads running the helper searchers, null with one thread */
+
+    TimeManager time = new TimeManager();
+    int ponderMove;             /**< Expected reply to the best move of the last search, Move.NONE if unknown */
+    volatile int completedDepth;
+    volatile boolean stopped;
+
+    /**
+     * Create a single threaded engine.
+     * @param hashMegabytes    Size of the transposition table
+     */
+    Engine(int hashMegabytes){
+        this(hashMegabytes, 1);
+    }
+
+    /**
+     * Create an engine.
+     * @param hashMegabytes    Size of the transposition table
+     * @param threads          Number of search threads, including the calling one
+     */
+    Engine(int hashMegabytes, int threads){
+        table = new TranspositionTable(hashMegabytes);
+        setThreads(threads);
+    }
+
+    /**
+     * Change the number of search threads. Not safe while searching.
+     * @param threads    Number of search threads, including the calling one
+     */
+    void setThreads(int threads){
+        if(threads < 1) throw new IllegalArgumentException("Invalid thread count");
+        if(helpers != null){
+            helpers.shutdownNow();
+            helpers = null;
+        }
+
+        searchers = new Searcher[threads];
+        for(int i = 0; i < threads; i++){
+            searchers[i] = new Searcher(i);
+        }
+        if(threads > 1){
+            helpers = Executors.newFixedThreadPool(threads - 1, runnable -> {
+                Thread thread = new Thread(runnable, "Engine helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Search the position of a game for the best move of the side to move. Searches
+     * run one at a time, as the console and the GUI may share an Engine.
+     * @param game        Game to search, left untouched
+     * @param maxDepth    Deepest iteration, at most MAX_PLY - 1
+     * @param millis      Time limit, 0 for none. The first depth is always finished.
+     * @return  Best move, Move.NONE if the side to move has no legal move
+     */
+    synchronized int think(NormalGameRule game, int maxDepth, long millis){
+        time.fixed(millis);
+        return search(game, maxDepth);
+    }
+
+    /**
+     * Search the position of a game on a clock, for as long as the TimeManager decides.
+     * @param game         Game to search, left untouched
+     * @param remaining    Milliseconds left on the clock of the side to move
+     * @param increment    Milliseconds added after every move
+     * @param movesToGo    Moves until the next time control, 0 if there is none
+     * @return  Best move, Move.NONE if the side to move has no legal move
+     */
+    synchronized int think(NormalGameRule game, long remaining, long increment, int movesToGo){
+        time.clock(remaining, increment, movesToGo);
+        return search(game, MAX_PLY - 1);
+    }
+
+    private int search(NormalGameRule game, int maxDepth){
+        time.start();
+        ponderMove = Move.NONE;
+        if(book != null){
+            int move = book.choose(game);
+            if(move != Move.NONE){
+                time.finish();
+                return move;
+            }
+        }
+
+        completedDepth = 0;
+        stopped = false;
+        table.newSearch();
+
+        // every thread gets its own copy, made before any of them starts
+        for(Searcher searcher : searchers){
+            searcher.reset(game.copy());
+        }
+        Future<?>[] running = new Future<?>[searchers.length - 1];
+        for(int i = 1; i < searchers.length; i++){
+            Searcher helper = searchers[i];
+            running[i - 1] = helpers.submit(() -> helper.iterate(maxDepth));
+        }
+
+        int bestMove = searchers[0].iterate(maxDepth);
+
+        stopped = true;
+        for(Future<?> future : running){
+            try {
+                future.get();
+            }catch(Exception e){
+                throw new IllegalStateException("Helper search failed", e);
+            }
+        }
+        if(ponderMove == Move.NONE && bestMove != Move.NONE){
+            ponderMove = searchers[0].expectedReply(bestMove);
+        }
+        time.finish();
+        return bestMove;
+    }
+
+    /**
+     * Turn a search started with no time limit, while pondering, into one with a
+     * limit counted from when it started, once the expected move has been played.
+     * Safe from any thread.
+     * @param millis    Time limit from the start of the search
+     */
+    void ponderHit(long millis){
+        time.fixed(millis);
+    }
+
+    /**
+     * Ask a running search to return as soon as possible. Safe from any thread.
+     */
+    void stop(){
+        stopped = true;
+    }
+
+    /**
+     * Nodes searched so far by all threads.
+     * @return  Number of nodes
+     */
+    long nodes(){
+        long nodes = 0;
+        for(Searcher searcher : searchers){
+            nodes += searcher.nodes;
+        }
+        return nodes;
+    }
+
+    /**
+     * Quiescence nodes searched so far by all threads, part of nodes.
+     * @return  Number of nodes
+     */
+    long qnodes(){
+        long nodes = 0;
+        for(Searcher searcher : searchers){
+            nodes += searcher.qnodes;
+        }
+        return nodes;
+    }
+
+    /**
+     * Search state owned by one thread.
+     */
+    class Searcher {
+        int index;                  /**< 0 for the main thread */
+        NormalGameRule rule;        /**< Copy of the game being searched */
+        SquareBoard board;
+        MoveList[] buffers = new MoveList[MAX_PLY];
+        int[][] pv = new int[MAX_PLY][MAX_PLY];     /**< Triangular table of principal variations by ply */
+        int[] pvLength = new int[MAX_PLY];
+        MoveOrdering ordering = new MoveOrdering(MAX_PLY);
+        long nodes;     /**< Read by the main thread for reports, so only approximate */
+        long qnodes;    /**< Nodes of the quiescence search, included in nodes */
+
+        Searcher(int index){
+            this.index = index;
+            for(int i = 0; i < MAX_PLY; i++){
+                buffers[i] = new MoveList();
+            }
+        }
+
+        void reset(NormalGameRule rule){
+            this.rule = rule;
+            this.board = rule.board;
+            board.useNetwork(network);
+            ordering.reset(board);
+            nodes = 0;
+            qnodes = 0;
+        }
+
+        /**
+         * Deepen the search until stopped or maxDepth is done. Helpers start a
+         * depth ahead every other thread, so threads spread over two depths.
+         * @param maxDepth    Deepest iteration
+         * @return  Best move of the last finished depth
+         */
+        int iterate(int maxDepth){
+            MoveList roots = rule.generateMoves(board.getTurn());
+            int bestMove = roots.isEmpty() ? Move.NONE : roots.get(0);
+
+            for(int depth = 1 + index % 2; depth <= Math.min(maxDepth, MAX_PLY - 1) && !roots.isEmpty(); depth++){
+                int score = negamax(depth, -INFINITY, INFINITY, 0);
+                if(stopped) break;
+                if(index != 0)  continue;
+
+                completedDepth = depth;
+                bestMove = pv[0][0];
+                ponderMove = pvLength[0] > 1 ? pv[0][1] : Move.NONE;
+                if(listener != null){
+                    listener.accept(new Report(depth, score, nodes(), qnodes(), time.elapsedMillis(), pv[0], pvLength[0], rule.width));
+                }
+                // nothing left to find once a mate is certain
+                if(Math.abs(score) >= MATE_BOUND || time.iterationFinished(bestMove, score))  break;
+            }
+            return bestMove;
+        }
+
+        /**
+         * Find the reply to a move in the transposition table, when the principal
+         * variation was cut short by it.
+         * @param move    Legal move in the searched position
+         * @return  Legal reply, Move.NONE if unknown
+         */
+        int expectedReply(int move){
+            board.makeMove(move);
+            long entry = table.probe(board.hash());
+            int reply = entry == 0 ? Move.NONE : TranspositionTable.move(entry);
+            MoveList replies = rule.generateMoves(board.getTurn());
+            boolean legal = false;
+            for(int i = 0; i < replies.size() && !legal; i++){
+                legal = replies.get(i) == reply;
+            }
+            board.unmakeMove();
+            return legal ? reply : Move.NONE;
+        }
+
+        private int negamax(int depth, int alpha, int beta, int ply){
+            if(depth <= 0 || ply == MAX_PLY - 1){
+                return quiesce(alpha, beta, ply);
+            }
+            pvLength[ply] = ply;
+            if((++nodes & (CHECK_NODES - 1)) == 0 && index == 0)   checkTime();
+            if(stopped) return 0;
+
+            Side side = board.getTurn();
+            if(ply > 0 && board.pieces.size() <= Tablebase.MAX_PIECES && !tablebases.isEmpty()){
+                Tablebase tablebase = tablebases.get(Tablebase.materialOf(board));
+                int result = tablebase == null ? Tablebase.UNKNOWN : tablebase.probe(board);
+                if(result != Tablebase.UNKNOWN) return fromTablebase(result, ply);
+            }
+
+            long key = board.hash();
+            long entry = table.probe(key);
+            int hashMove = Move.NONE;
+            if(entry != 0){
+                hashMove = TranspositionTable.move(entry);
+                int score = fromTable(TranspositionTable.score(entry), ply), bound = TranspositionTable.bound(entry);
+                if(ply > 0 && TranspositionTable.depth(entry) >= depth && (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER && score >= beta)
+                        || (bound == TranspositionTable.UPPER && score <= alpha))){
+                    return score;
+                }
+            }
+
+            MoveList moves = buffers[ply];
+            moves.clear();
+            rule.generateMoves(side, moves);
+            if(moves.isEmpty()){
+                return rule.isInCheck(side) ? -MATE + ply : 0;
+            }
+            ordering.score(ply, moves, hashMove);
+
+            int best = -INFINITY, bestMove = Move.NONE, originalAlpha = alpha;
+            for(int i = 0; i < moves.size(); i++){
+                int move = ordering.next(ply, moves, i);
+                board.makeMove(move);
+                int score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+                board.unmakeMove();
+                if(stopped) return 0;
+
+                if(score > best){
+                    best = score;
+                    bestMove = move;
+                }
+                if(score > alpha){
+                    alpha = score;
+                    pv[ply][ply] = move;
+                    System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+                    pvLength[ply] = pvLength[ply + 1];
+                    if(alpha >= beta){
+                        ordering.cutoff(ply, move, depth);
+                        break;
+                    }
+                }
+            }
+
+            int bound = best >= beta ? TranspositionTable.LOWER : best > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+            table.store(key, bestMove, toTable(best, ply), depth, bound);
+            return best;
+        }
+
+        /**
+         * Search captures only until the position is quiet. The side to move may
+         * stand pat on the static evaluation instead of capturing, and captures which
+         * cannot raise alpha even with the victim's value and DELTA_MARGIN are skipped,
+         * as are captures losing material by static exchange evaluation.
+         * In check every evasion is searched and there is no standing pat.
+         */
+        private int quiesce(int alpha, int beta, int ply){
+            pvLength[ply] = ply;
+            qnodes++;
+            if((++nodes & (CHECK_NODES - 1)) == 0 && index == 0)   checkTime();
+            if(stopped) return 0;
+
+            Side side = board.getTurn();
+            boolean inCheck = rule.isInCheck(side);
+            int standPat = evaluate(side), best = -INFINITY;
+            if(ply == MAX_PLY - 1)  return standPat;
+            if(!inCheck){
+                if(standPat >= beta)    return standPat;
+                best = standPat;
+                alpha = Math.max(alpha, standPat);
+            }
+
+            MoveList moves = buffers[ply];
+            moves.clear();
+            if(inCheck){
+                rule.generateMoves(side, moves);
+                if(moves.isEmpty()) return -MATE + ply;
+            }else{
+                rule.generateCaptures(side, moves);
+            }
+            ordering.score(ply, moves, Move.NONE);
+
+            ChessPiece[] mailbox = board.mailbox;
+            for(int i = 0; i < moves.size(); i++){
+                int move = ordering.next(ply, moves, i);
+                ChessPiece victim = mailbox[board.geometry.cellOf[Move.getTo(move)]];
+                if(!inCheck && (standPat + victim.type.value + DELTA_MARGIN <= alpha || rule.exchange.isLosing(move))){
+                    continue;
+                }
+
+                board.makeMove(move);
+                int score = -quiesce(-beta, -alpha, ply + 1);
+                board.unmakeMove();
+                if(stopped) return 0;
+
+                if(score > best){
+                    best = score;
+                    if(score > alpha){
+                        alpha = score;
+                        if(alpha >= beta)   break;
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Score the position by the network if there is one, else by material and piece-square values.
+         * @param side    Side to move
+         * @return  Score in centipawns from the side to move
+         */
+        int evaluate(Side side){
+            return board.accumulator != null ? board.accumulator.evaluate(side) : board.evaluate(side);
+        }
+    }
+
+    /**
+     * Convert a Tablebase result into a score, mates counted from the root.
+     */
+    private static int fromTablebase(int result, int ply){
+        switch (Tablebase.outcome(result)){
+            case Tablebase.WIN:     return MATE - ply - Tablebase.distance(result);
+            case Tablebase.LOSS:    return -MATE + ply + Tablebase.distance(result);
+        }
+        return 0;
+    }
+
+    private void checkTime(){
+        // the first depth always finishes, so there is a move to play
+        if(completedDepth > 0 && time.isHardLimitReached()){
+            stopped = true;
+        }
+    }
+
+    // mate scores are stored relative to the position, not the root
+    private static int toTable(int score, int ply){
+        return score >= MATE_BOUND ? score + ply : score <= -MATE_BOUND ? score - ply : score;
+    }
+
+    private static int fromTable(int score, int ply){
+        return score >= MATE_BOUND ? score - ply : score <= -MATE_BOUND ? score + ply : score;
+    }
+
+    /**
+     * Result of one finished depth.
+     */
+    static class Report {
+        int depth;
+        int score;      /**< Centipawns from the side to move, or a mate score */
+        long nodes;
+        long qnodes;    /**< Quiescence nodes, part of nodes */
+        long millis;
+        int[] pv;       /**< Principal variation, best move first */
+        int dimension;  /**< Dimension of the board, to print the moves */
+
+        Report(int depth, int score, long nodes, long qnodes, long millis, int[] pv, int length, int dimension){
+            this.depth = depth;
+            this.score = score;
+            this.nodes = nodes;
+            this.qnodes = qnodes;
+            this.millis = millis;
+            this.pv = Arrays.copyOf(pv, length);
+            this.dimension = dimension;
+        }
+
+        long nodesPerSecond(){
+            return nodes * 1000 / Math.max(1, millis);
+        }
+
+        @Override
+        public String toString(){
+            StringBuilder result = new StringBuilder("depth " + depth);
+            if(Math.abs(score) >= MATE_BOUND){
+                int plies = MATE - Math.abs(score);
+                result.append(" mate ").append(score > 0 ? (plies + 1) / 2 : -(plies / 2));
+            }else{
+                result.append(" score ").append(score);
+            }
+            result.append(" nodes ").append(nodes).append(" qnodes ").append(qnodes * 100 / Math.max(1, nodes)).append('%')
+                    .append(" nps ").append(nodesPerSecond())
+                    .append(" time ").append(millis).append(" pv");
+            for(int move : pv){
+                result.append(' ').append(Move.toString(move, dimension));
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * Measure how the search scales with threads.
+     *
+     * Usage: java Engine [--position "..."] [--dim N] [--custom] [--hash MB] [--threads N] depth
+     *
+     * Searches the position to a fixed depth with 1, 2, 4, ... threads up to --threads,
+     * the number of cores by default, each time with a cleared table, and prints the
+     * time to depth, nodes/sec and their ratio to one thread.
+     */
+    public static void main(String[] args){
+        int depth = -1, dimension = 8, hash = 64, threads = Runtime.getRuntime().availableProcessors();
+        boolean custom = false;
+        String position = null;
+
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]){
+                case "--custom":    custom = true; break;
+                case "--dim":       dimension = Integer.parseInt(args[++i]); break;
+                case "--position":  position = args[++i]; break;
+                case "--hash":      hash = Integer.parseInt(args[++i]); break;
+                case "--threads":   threads = Integer.parseInt(args[++i]); break;
+                default:            depth = Integer.parseInt(args[i]);
+            }
+        }
+        if(depth < 1){
+            System.err.println("Usage: java Engine [--position \"...\"] [--dim N] [--custom] [--hash MB] [--threads N] depth");
+            System.exit(1);
+        }
+
+        // setting up the board prints every piece created
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream(){
+            @Override
+            public void write(int b){}
+        }));
+        NormalGameRule rule;
+        try {
+            if(position != null){
+                rule = NormalGameRule.fromPosition(position);
+            }else{
+                rule = new NormalGameRule(dimension, dimension);
+                if(custom){
+                    rule.setCustomPieces(true);
+                    rule.board.resetPosition();
+                }
+            }
+        }finally{
+            System.setOut(out);
+        }
+        out.println(rule.toPosition());
+
+        Engine engine = new Engine(hash);
+        long baseMillis = 0, baseSpeed = 0;
+        for(int n = 1; ; n = Math.min(2 * n, threads)){
+            engine.setThreads(n);
+            engine.table.clear();
+            Report[] last = new Report[1];
+            engine.listener = report -> last[0] = report;
+
+            engine.think(rule, depth, 0);
+            long millis = Math.max(1, last[0].millis), speed = last[0].nodesPerSecond();
+            if(n == 1){
+                baseMillis = millis;
+                baseSpeed = speed;
+            }
+            out.printf("%2d threads: %s%n", n, last[0]);
+            out.printf("            time to depth %.2fx, nodes/sec %.2fx%n", (double) baseMillis / millis, (double) speed / Math.max(1, baseSpeed));
+            if(n >= threads)    break;
+        }
+        engine.setThreads(1);
+    }
+}
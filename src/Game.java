@@ -1,27 +1,104 @@
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 /**
  * Implements Game loop for command line
  */
 public class Game {
+    static final long COMPUTER_MILLIS = 2000;   /**< Thinking time of the computer per move */
+
     /**
      * Main loop
-     * @param args  Command line args
+     * @param args  Command line args, "--computer white", "--computer black" or "--computer both"
+     *              to let the computer play a side, "--time ms" for its thinking time per
+     *              move or "--clock ms+increment" for its clock,
+     *              "--threads n" for its number of search threads, "--nnue file" for
+     *              a NeuralNetwork weight file to evaluate with, "--book file" for an
+     *              OpeningBook to play from and "--tablebase file" for each Tablebase
+     *              to score endgames with
      */
     public static void main(String[] args){
+        boolean[] computer = new boolean[2];
+        long millis = COMPUTER_MILLIS;
+        long[] clock = null;
+        long increment = 0;
+        int threads = 1;
+        String weights = null, book = null;
+        List<String> tablebases = new ArrayList<>();
+        for(int i = 0; i < args.length - 1; i++){
+            if(args[i].equals("--computer")){
+                String side = args[++i];
+                computer[Side.WHITE.toInt()] = side.equals("white") || side.equals("both");
+                computer[Side.BLACK.toInt()] = side.equals("black") || side.equals("both");
+            }else if(args[i].equals("--time")){
+                millis = Long.parseLong(args[++i]);
+            }else if(args[i].equals("--clock")){
+                String[] parts = args[++i].split("\\+");
+                clock = new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[0])};
+                increment = parts.length > 1 ? Long.parseLong(parts[1]) : 0;
+            }else if(args[i].equals("--threads")){
+                threads = Integer.parseInt(args[++i]);
+            }else if(args[i].equals("--nnue")){
+                weights = args[++i];
+            }else if(args[i].equals("--book")){
+                book = args[++i];
+            }else if(args[i].equals("--tablebase")){
+                tablebases.add(args[++i]);
+            }
+        }
+
         // Initialize score keeper
-        ScoreKeeper scoreKeeper = new ScoreKeeper("Player 1", "Player 2");
+        ScoreKeeper scoreKeeper = new ScoreKeeper(computer[Side.WHITE.toInt()] ? "Computer" : "Player 1",
+                computer[Side.BLACK.toInt()] ? "Computer" : "Player 2");
 
         //8 x 8 square chessboard
         NormalGameRule rule = new NormalGameRule(scoreKeeper);
         SquareBoard board = rule.board;
 
         BoardDrawer drawer = board.getDrawer("Fancy Chess Game");
+        Engine engine = new Engine(64, threads);
+        engine.listener = System.out::println;
+        if(weights != null){
+            try {
+                NeuralNetwork network = NeuralNetwork.load(new File(weights));
+                if(network.dimension == board.dimension)    engine.network = network;
+                else    System.out.println("Cannot use " + weights + ", it is for a board of dimension " + network.dimension);
+            }catch(IOException e){
+                System.out.println("Cannot load " + weights + ", using piece-square tables: " + e.getMessage());
+            }
+        }
+        if(book != null){
+            try {
+                engine.book = OpeningBook.open(new File(book));
+            }catch(IOException e){
+                System.out.println("Cannot load " + book + ": " + e.getMessage());
+            }
+        }
+        for(String file : tablebases){
+            try {
+                Tablebase tablebase = Tablebase.open(new File(file));
+                engine.tablebases.put(tablebase.material, tablebase);
+            }catch(IOException e){
+                System.out.println("Cannot load " + file + ": " + e.getMessage());
+            }
+        }
+        drawer.setEngine(engine);
 
+        boolean ongoing;
         do {
             updateDisplay(drawer, board);
-        } while(parseMovement(rule));
+            if(!computer[board.getTurn().toInt()]){
+                ongoing = parseMovement(rule);
+            }else if(clock != null){
+                ongoing = playComputerMove(rule, engine, clock, increment);
+            }else{
+                ongoing = playComputerMove(rule, engine, millis);
+            }
+        } while(ongoing);
 
         updateDisplay(drawer,board);
 
@@ -54,19 +131,60 @@ public class Game {
             }
 
             if(rule.parseNotation(cmd)){
-                switch (rule.gameStatus.status){
-                    case NOT_ENDED:
-                        break Outer;
-                    case CHECKMATE:
-                        System.out.println("Checkmate! " + rule.gameStatus.winningSide.desc + " wins!");
-                        return false;
-                    case STALEMATE:
-                        System.out.println("Stalemate! Nobody wins!");
-                        return false;
+                if(isOngoing(rule)){
+                    break Outer;
                 }
+                return false;
             }
         }
 
         return true;
     }
+
+    /**
+     * Let the computer play the side to move.
+     * @param rule      Rule that the board is using
+     * @param engine    Engine searching the move
+     * @param millis    Thinking time
+     * @return  True if the game can be progressed.
+     */
+    public static boolean playComputerMove(NormalGameRule rule, Engine engine, long millis){
+        System.out.println("Computer is thinking...");
+        int move = engine.think(rule, Engine.MAX_PLY - 1, millis);
+        return move != Move.NONE && rule.playMove(move) && isOngoing(rule);
+    }
+
+    /**
+     * Let the computer play the side to move on its clock.
+     * @param rule         Rule that the board is using
+     * @param engine       Engine searching the move
+     * @param clock        Milliseconds left by Side index, updated with the time taken and the increment
+     * @param increment    Milliseconds added after every move
+     * @return  True if the game can be progressed.
+     */
+    public static boolean playComputerMove(NormalGameRule rule, Engine engine, long[] clock, long increment){
+        int side = rule.board.getTurn().toInt();
+        System.out.println("Computer is thinking, " + clock[side] + " ms left...");
+        long start = System.nanoTime();
+        int move = engine.think(rule, clock[side], increment, 0);
+        clock[side] += increment - (System.nanoTime() - start) / 1000000;
+        return move != Move.NONE && rule.playMove(move) && isOngoing(rule);
+    }
+
+    /**
+     * Announce the end of the game, if it has ended.
+     * @param rule    Rule that the board is using
+     * @return  True if the game has not ended.
+     */
+    private static boolean isOngoing(NormalGameRule rule){
+        switch (rule.gameStatus.status){
+            case CHECKMATE:
+                System.out.println("Checkmate! " + rule.gameStatus.winningSide.desc + " wins!");
+                return false;
+            case STALEMATE:
+                System.out.println("Stalemate! Nobody wins!");
+                return false;
+        }
+        return true;
+    }
 }
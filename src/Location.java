@@ -2,35 +2,26 @@ import com.sun.istack.internal.NotNull;
 
 /**
  * Universal Location type for a SquareBoard
+ *
+ * Locations are immutable, and there is one of each per board dimension, held by
+ * the BoardGeometry shared by all boards of that size, so looking one up allocates
+ * nothing and two Locations are equal only if they are the same object.
  */
 public class Location{
-    protected int x;
-    protected int y;
-    protected int id;
-    Location(Location location){
-        this.x = location.x;
-        this.y = location.y;
-        this.id = location.id;
-    }
-    Location(int id, NormalGameRule rule){
-        if(id > rule.maxId)  throw new IllegalArgumentException("Invalid ID");
-        x = id % rule.width;
-        y = id / rule.width;
-        this.id = id;
-    }
-    Location(int x, int y, NormalGameRule rule){
-        if(x >= rule.width || y >= rule.height)  throw new IllegalArgumentException("Invalid dimension");
-        this.x = x;
-        this.y = y;
-        this.id = y * rule.width + x;
-    }
+    protected final int x;
+    protected final int y;
+    protected final int id;
 
     /**
-     * Clone a Location object
-     * @return  A cloned Location object
+     * Only BoardGeometry creates Locations, once per dimension.
+     * @param x            x
+     * @param y            y
+     * @param dimension    Dimension of the board
      */
-    public Location clone(){
-        return new Location(this);
+    Location(int x, int y, int dimension){
+        this.x = x;
+        this.y = y;
+        this.id = y * dimension + x;
     }
 
     /**
@@ -67,7 +58,7 @@ public class Location{
     }
 
     public boolean equals(@NotNull Location b){
-        return this.id == b.id;
+        return this == b;
     }
 
     @Override
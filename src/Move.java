@@ -0,0 +1,78 @@
+/**
+ * Helpers for int-encoded moves.
+ *
+ * A move packs the origin location id into the upper 16 bits and the
+ * destination location id into the lower 16 bits, so move lists can be
+ * stored in primitive buffers instead of Location objects.
+ */
+public final class Move {
+    static final int NONE = 0;  /**< Placeholder for "no move", origin and destination can never be equal */
+
+    private Move(){}
+
+    /**
+     * Encode a move.
+     * @param from    Origin location id
+     * @param to      Destination location id
+     * @return  Encoded move
+     */
+    static int encode(int from, int to){
+        return from << 16 | to;
+    }
+
+    /**
+     * Get the origin of an encoded move.
+     * @param move    Encoded move
+     * @return  Origin location id
+     */
+    static int getFrom(int move){
+        return move >>> 16;
+    }
+
+    /**
+     * Get the destination of an encoded move.
+     * @param move    Encoded move
+     * @return  Destination location id
+     */
+    static int getTo(int move){
+        return move & 0xFFFF;
+    }
+
+    /**
+     * Convert a move into coordinate notation, such as e2e4.
+     * @param move         Encoded move
+     * @param dimension    Dimension of the board
+     * @return  Origin and destination in algebraic notation
+     */
+    static String toString(int move, int dimension){
+        return toNotation(getFrom(move), dimension) + toNotation(getTo(move), dimension);
+    }
+
+    private static String toNotation(int id, int dimension){
+        return "" + (char) ('a' + id % dimension) + (dimension - id / dimension);
+    }
+
+    /**
+     * Parse a move in coordinate notation.
+     * @param text         A move such as e2e4 or a15b13
+     * @param dimension    Dimension of the board
+     * @return  Encoded move
+     */
+    static int parse(String text, int dimension){
+        int split = 1;
+        while(split < text.length() && Character.isDigit(text.charAt(split)))    split++;
+        if(split == 1 || split >= text.length())  throw new IllegalArgumentException("Invalid move " + text);
+        return encode(parseNotation(text.substring(0, split), dimension), parseNotation(text.substring(split), dimension));
+    }
+
+    private static int parseNotation(String text, int dimension){
+        int x = text.charAt(0) - 'a', y;
+        try {
+            y = dimension - Integer.parseInt(text.substring(1));
+        }catch(NumberFormatException e){
+            throw new IllegalArgumentException("Invalid move " + text);
+        }
+        if(x < 0 || x >= dimension || y < 0 || y >= dimension)  throw new IllegalArgumentException("Invalid move " + text);
+        return y * dimension + x;
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.Arrays;
+
+/**
+ * Growable primitive buffer of int-encoded moves.
+ * @see Move
+ */
+public class MoveList {
+    int[] moves;    /**< Backing buffer */
+    int size;       /**< Number of moves stored */
+
+    MoveList(){
+        this(256);
+    }
+
+    MoveList(int capacity){
+        moves = new int[capacity];
+    }
+
+    /**
+     * Append a move to the list.
+     * @param move    Encoded move
+     */
+    public void add(int move){
+        if(size == moves.length){
+            moves = Arrays.copyOf(moves, size * 2);
+        }
+        moves[size++] = move;
+    }
+
+    /**
+     * Get a move by index.
+     * @param index    Index of the move
+     * @return  Encoded move
+     */
+    public int get(int index){
+        return moves[index];
+    }
+
+    /**
+     * Overwrite a move by index.
+     * @param index    Index of the move
+     * @param move     Encoded move
+     */
+    public void set(int index, int move){
+        moves[index] = move;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Drop every move after the first `size` ones.
+     * @param size    New size of the list
+     */
+    public void truncate(int size){
+        this.size = size;
+    }
+
+    /**
+     * Empty the list while keeping the buffer.
+     */
+    public void clear(){
+        size = 0;
+    }
+}
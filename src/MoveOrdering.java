@@ -0,0 +1,141 @@
+import java.util.Arrays;
+
+/**
+ * Orders the moves of a search node so that the ones most likely to cause a cutoff
+ * are searched first: the hash move, then captures by most valuable victim and least
+ * valuable attacker, then the killer moves of the ply, then quiet moves by history,
+ * and last the captures which lose material by static exchange evaluation.
+ *
+ * Moves are scored once per node and picked one at a time, best first, so a node
+ * which cuts off early never sorts the rest of its moves. Killers and history are
+ * learned from quiet moves causing cutoffs, and every table is a primitive array
+ * owned by one search thread.
+ */
+public class MoveOrdering {
+    private static final int HASH = 1 << 30;        /**< Score of the hash move */
+    private static final int CAPTURE = 1 << 29;     /**< Base score of captures */
+    private static final int KILLER = 1 << 28;      /**< Score of the second killer, the first gets one more */
+    private static final int LOSING = -(1 << 28);   /**< Base score of captures losing material, below every quiet move */
+    private static final int HISTORY_LIMIT = 1 << 20;   /**< History is halved once an entry passes this */
+    private static final int KING_ATTACKER = 2000;      /**< Attacker value of the King, the last piece to capture with */
+    private static final int TYPES = PieceType.values().length;
+
+    SquareBoard board;
+    StaticExchange exchange;
+    int[][] scores;     /**< Scores of the moves of every ply, parallel to their MoveList */
+    int[][] killers;    /**< Two quiet moves per ply which caused a cutoff, most recent first */
+    int[] history;      /**< Cutoff counts of quiet moves by side, PieceType index and destination */
+
+    MoveOrdering(int maxPly){
+        scores = new int[maxPly][256];
+        killers = new int[maxPly][2];
+    }
+
+    /**
+     * Start searching a board, keeping what was learned on a board of the same dimension.
+     * @param board    Board to be searched
+     */
+    void reset(SquareBoard board){
+        int length = 2 * TYPES * (board.maxId + 1);
+        if(history == null || history.length != length){
+            history = new int[length];
+        }else{
+            // older searches count less
+            for(int i = 0; i < history.length; i++){
+                history[i] >>= 1;
+            }
+        }
+        for(int[] moves : killers){
+            Arrays.fill(moves, Move.NONE);
+        }
+        this.board = board;
+        this.exchange = board.rule.exchange;
+    }
+
+    /**
+     * Score the moves of a node before they are picked.
+     * @param ply         Ply of the node
+     * @param moves       Legal moves of the node
+     * @param hashMove    Best move stored for the node, Move.NONE if unknown
+     */
+    void score(int ply, MoveList moves, int hashMove){
+        if(scores[ply].length < moves.size()){
+            scores[ply] = new int[moves.moves.length];
+        }
+
+        int[] result = scores[ply];
+        int[] killer = killers[ply];
+        for(int i = 0; i < moves.size(); i++){
+            int move = moves.get(i);
+            ChessPiece piece = pieceAt(Move.getFrom(move)), victim = pieceAt(Move.getTo(move));
+
+            if(move == hashMove){
+                result[i] = HASH;
+            }else if(victim != null){
+                int attacker = piece.type == PieceType.KING ? KING_ATTACKER : piece.type.value;
+                result[i] = (exchange.isLosing(move) ? LOSING : CAPTURE) + victim.type.value * 16 - attacker / 8;
+            }else if(move == killer[0]){
+                result[i] = KILLER + 1;
+            }else if(move == killer[1]){
+                result[i] = KILLER;
+            }else{
+                result[i] = history[historyIndex(piece, Move.getTo(move))];
+            }
+        }
+    }
+
+    /**
+     * Pick the best of the moves not searched yet and swap it into place.
+     * @param ply      Ply of the node
+     * @param moves    Moves scored with score
+     * @param index    Index of the move to be searched next
+     * @return  The move now at index
+     */
+    int next(int ply, MoveList moves, int index){
+        int[] result = scores[ply];
+        int best = index;
+        for(int i = index + 1; i < moves.size(); i++){
+            if(result[i] > result[best])    best = i;
+        }
+        if(best != index){
+            int move = moves.get(best), score = result[best];
+            moves.set(best, moves.get(index));
+            result[best] = result[index];
+            moves.set(index, move);
+            result[index] = score;
+        }
+        return moves.get(index);
+    }
+
+    /**
+     * Learn from a move causing a beta cutoff, with the board back in the position of the node.
+     * @param ply      Ply of the node
+     * @param move     Move causing the cutoff
+     * @param depth    Remaining depth of the node
+     */
+    void cutoff(int ply, int move, int depth){
+        if(pieceAt(Move.getTo(move)) != null)   return;
+
+        int[] killer = killers[ply];
+        if(killer[0] != move){
+            killer[1] = killer[0];
+            killer[0] = move;
+        }
+
+        int index = historyIndex(pieceAt(Move.getFrom(move)), Move.getTo(move));
+        history[index] += depth * depth;
+        if(history[index] > HISTORY_LIMIT){
+            for(int i = 0; i < history.length; i++){
+                history[i] >>= 1;
+            }
+        }
+    }
+
+    private ChessPiece pieceAt(int id){
+        return board.mailbox[board.geometry.cellOf[id]];
+    }
+
+    private int historyIndex(ChessPiece piece, int to){
+        return (piece.side.toInt() * TYPES + piece.type.index) * (board.maxId + 1) + to;
+    }
+}
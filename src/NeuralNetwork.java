@@ -0,0 +1,234 @@
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Weights of an efficiently updatable neural network evaluation (NNUE) for one
+ * board dimension.
+ *
+ * Inputs are one feature per (own or enemy, PieceType, location) seen from each
+ * side, so every PieceType including Cannons and Turners has its own weights.
+ * Both armies start on rows 0 to 7 whatever the dimension, so larger boards are
+ * not symmetric, and each side has its own input weights instead of Black's view
+ * being White's flipped. The first layer is kept per board in a NeuralAccumulator
+ * as int16 sums, updated by adding or subtracting one weight row whenever a piece
+ * is placed or lifted. The output layer clips both sides' accumulators to 0..CLIP,
+ * the side to move first, and takes their dot product with int8 weights.
+ *
+ * Weight files are big-endian: the magic "FCNN", the version, dimension, hidden
+ * size and output scale as ints, then the int16 input weights by side, feature
+ * and hidden unit, the int16 hidden biases, the int8 output weights and the int
+ * output bias. The score in centipawns is (bias + dot product) * scale / 256.
+ */
+public class NeuralNetwork {
+    static final int MAGIC = 0x46434E4E;    /**< "FCNN" */
+    static final int VERSION = 1;
+    static final int CLIP = 255;            /**< Upper bound of an activation */
+    private static final int TYPES = PieceType.values().length;
+
+    int dimension;
+    int squares;
+    int hidden;             /**< Hidden units per side */
+    int scale;              /**< Output scale, 256 for centipawns */
+    short[] inputWeights;   /**< Weights by side, feature and hidden unit, see #row */
+    short[] inputBias;
+    byte[] outputWeights;   /**< Side to move's units, then the other side's */
+    int outputBias;
+
+    NeuralNetwork(int dimension, int hidden){
+        this.dimension = dimension;
+        this.squares = dimension * dimension;
+        this.hidden = hidden;
+        this.scale = 256;
+        inputWeights = new short[2 * features() * hidden];
+        inputBias = new short[hidden];
+        outputWeights = new byte[2 * hidden];
+    }
+
+    /**
+     * Number of input features seen from one side.
+     * @return  2 * PieceType count * squares
+     */
+    int features(){
+        return 2 * TYPES * squares;
+    }
+
+    /**
+     * Offset of the input weights of a piece seen from a side.
+     * @param perspective    Side seeing the board
+     * @param piece          Chess piece
+     * @param id             Location id of the piece
+     * @return  Index of the first of hidden weights in inputWeights
+     */
+    int row(Side perspective, ChessPiece piece, int id){
+        int relation = piece.side == perspective ? 0 : 1;
+        return (perspective.toInt() * features() + (relation * TYPES + piece.type.index) * squares + id) * hidden;
+    }
+
+    /**
+     * Score the output layer.
+     * @param us      Accumulator of the side to move
+     * @param them    Accumulator of the other side
+     * @return  Score in centipawns from the side to move
+     */
+    int evaluate(short[] us, short[] them){
+        int sum = outputBias;
+        for(int i = 0; i < hidden; i++){
+            sum += clip(us[i]) * outputWeights[i];
+        }
+        for(int i = 0; i < hidden; i++){
+            sum += clip(them[i]) * outputWeights[hidden + i];
+        }
+        return sum * scale / 256;
+    }
+
+    private static int clip(short value){
+        return Math.min(Math.max(value, 0), CLIP);
+    }
+
+    /**
+     * Read a network from a weight file.
+     * @param file    Weight file
+     * @return  The network
+     * @throws IOException    If the file cannot be read or is not a weight file
+     */
+    static NeuralNetwork load(File file) throws IOException{
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+            if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                throw new IOException("Not a weight file: " + file);
+            }
+            NeuralNetwork network = new NeuralNetwork(in.readInt(), in.readInt());
+            network.scale = in.readInt();
+            for(int i = 0; i < network.inputWeights.length; i++)    network.inputWeights[i] = in.readShort();
+            for(int i = 0; i < network.hidden; i++)                 network.inputBias[i] = in.readShort();
+            in.readFully(network.outputWeights);
+            network.outputBias = in.readInt();
+            return network;
+        }
+    }
+
+    /**
+     * Write the network to a weight file.
+     * @param file    Weight file
+     * @throws IOException    If the file cannot be written
+     */
+    void save(File file) throws IOException{
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dimension);
+            out.writeInt(hidden);
+            out.writeInt(scale);
+            for(short weight : inputWeights)    out.writeShort(weight);
+            for(short bias : inputBias)         out.writeShort(bias);
+            out.write(outputWeights);
+            out.writeInt(outputBias);
+        }
+    }
+
+    private static final Map<Integer, NeuralNetwork> bootstraps = new HashMap<>();
+    private static final int STEP = 32;     /**< Centipawns per unit of a bootstrap activation */
+    private static final int OFFSET = 64;   /**< Bootstrap hidden bias, keeps King units above 0 */
+
+    /**
+     * Build a network reproducing PieceSquareTables up to its quantization, as a
+     * starting point for training and as a reference when none is available.
+     * Every side has one hidden unit per relation and PieceType, summing the
+     * values of those pieces in STEP centipawns.
+     * @param dimension    Dimension of the board
+     * @return  A shared network
+     */
+    static synchronized NeuralNetwork bootstrap(int dimension){
+        NeuralNetwork network = bootstraps.get(dimension);
+        if(network != null) return network;
+
+        network = new NeuralNetwork(dimension, 2 * TYPES);
+        PieceSquareTables tables = PieceSquareTables.forDimension(dimension);
+        for(Side perspective : Side.values()){
+            for(int relation = 0; relation < 2; relation++){
+                Side side = relation == 0 ? perspective : perspective.opposite();
+                for(PieceType type : PieceType.values()){
+                    int unit = relation * TYPES + type.index;
+                    ChessPiece piece = new ChessPiece(type, side, 0);
+                    for(int id = 0; id < network.squares; id++){
+                        int value = tables.values[side.toInt()][type.index][id];
+                        network.inputWeights[network.row(perspective, piece, id) + unit] = (short) Math.round(value / (float) STEP);
+                    }
+                    network.inputBias[unit] = OFFSET;
+                    network.outputWeights[unit] = (byte) (relation == 0 ? STEP : -STEP);
+                }
+            }
+        }
+        // the biases of own and enemy units cancel out, and the other side's view is not needed
+        bootstraps.put(dimension, network);
+        return network;
+    }
+
+    /**
+     * Compare evaluations per second of the network and of the piece-square tables.
+     *
+     * Usage: java NeuralNetwork [--dim N] [weights]
+     *
+     * Plays random games with Cannons and Turners, and on every position evaluates
+     * with SquareBoard.evaluate, NeuralAccumulator.evaluate, and with a full refresh
+     * of the accumulator. Without a weight file the bootstrap network is used.
+     */
+    public static void main(String[] args) throws IOException{
+        int dimension = 8;
+        String weights = null;
+        for(int i = 0; i < args.length; i++){
+            if(args[i].equals("--dim")) dimension = Integer.parseInt(args[++i]);
+            else                        weights = args[i];
+        }
+        NeuralNetwork network = weights != null ? load(new File(weights)) : bootstrap(dimension);
+        dimension = network.dimension;
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream(){
+            @Override
+            public void write(int b){}
+        }));
+        NormalGameRule rule = new NormalGameRule(dimension, dimension);
+        rule.setCustomPieces(true);
+        rule.board.resetPosition();
+        System.setOut(out);
+
+        SquareBoard board = rule.board;
+        board.useNetwork(network);
+        SplittableRandom random = new SplittableRandom(1);
+        long[] nanos = new long[3];
+        long count = 0, checksum = 0;
+
+        for(int game = 0; game < 200; game++){
+            for(int ply = 0; ply < 80; ply++){
+                MoveList moves = rule.generateMoves(board.getTurn());
+                if(moves.isEmpty()) break;
+                board.makeMove(moves.get(random.nextInt(moves.size())));
+
+                Side side = board.getTurn();
+                long start = System.nanoTime();
+                for(int i = 0; i < 100; i++)    checksum += board.evaluate(side);
+                long middle = System.nanoTime();
+                for(int i = 0; i < 100; i++)    checksum += board.accumulator.evaluate(side);
+                long end = System.nanoTime();
+                for(int i = 0; i < 100; i++){
+                    board.accumulator.refresh();
+                    checksum += board.accumulator.evaluate(side);
+                }
+                long refreshed = System.nanoTime();
+
+                nanos[0] += middle - start;
+                nanos[1] += end - middle;
+                nanos[2] += refreshed - end;
+                count += 100;
+            }
+            while(board.undoStack.size > 0) board.unmakeMove();
+        }
+
+        out.println("Dimension " + dimension + ", " + network.hidden + " hidden units, " + count + " evaluations, checksum " + checksum);
+        out.println("Piece-square tables:  " + count * 1000000000L / Math.max(1, nanos[0]) + " evaluations/sec");
+        out.println("Network, incremental: " + count * 1000000000L / Math.max(1, nanos[1]) + " evaluations/sec");
+        out.println("Network, refreshed:   " + count * 1000000000L / Math.max(1, nanos[2]) + " evaluations/sec");
+    }
+}
@@ -12,6 +12,9 @@ public class NormalGameRule extends GameRule {
     GameStatus gameStatus;
     GUIController guiController = new GUIController(this);
     ScoreKeeper scoreKeeper = new ScoreKeeper();
+    MoveList moveBuffer = new MoveList();   /**< Reusable buffer for generateMoves */
+    CheckMask checkMask;                    /**< Pins and evasions of the side being generated */
+    StaticExchange exchange;                /**< Exchange evaluation on the board */
 
     public NormalGameRule(){
         this(new ScoreKeeper());
@@ -21,6 +24,8 @@ public class NormalGameRule extends GameRule {
         this.scoreKeeper = scoreKeeper;
 
         board = new SquareBoard(this);
+        checkMask = new CheckMask(board);
+        exchange = new StaticExchange(board);
         initBoard();
     }
 
@@ -30,12 +35,28 @@ public class NormalGameRule extends GameRule {
      * @param height    Height
      */
     public NormalGameRule(int width, int height){
+        this(width, height, true);
+    }
+
+    /**
+     * Set up with a custom dimension, optionally leaving the board empty.
+     * @param width       Width
+     * @param height      Height
+     * @param populate    True to place the initial pieces
+     */
+    private NormalGameRule(int width, int height, boolean populate){
         this.width = width;
         this.height = height;
         this.maxId = width * height - 1;
 
         board = new SquareBoard(this);
-        initBoard();
+        checkMask = new CheckMask(board);
+        exchange = new StaticExchange(board);
+        if(populate){
+            initBoard();
+        }else{
+            gameStatus = new GameStatus(this);
+        }
     }
 
     /**
@@ -87,8 +108,11 @@ public class NormalGameRule extends GameRule {
      */
     @Override
     public boolean isMoveLegal(ChessPiece piece, Object location) {
-        Location oldLoc = board.getLoc(piece),
-                newLoc = (Location) location;
+        Location newLoc = (Location) location;
+
+        if(board.bitboard != null){
+            return board.bitboard.isMoveLegal(piece, newLoc.id);
+        }
 
         // reject if a chest piece already in place
         ChessPiece possibleTarget = board.getPieceAtLocation(newLoc);
@@ -97,7 +121,7 @@ public class NormalGameRule extends GameRule {
         }
 
         // check path
-        return new Validator(piece).validate(oldLoc, newLoc);
+        return validate(piece, piece.location, newLoc.id);
     }
 
     /**
@@ -109,6 +133,15 @@ public class NormalGameRule extends GameRule {
         ChessPiece king = kings[side.toInt()];
         KingCheckCheckerResult result = new KingCheckCheckerResult();
 
+        if(board.attacks != null){
+            ChessPiece attacker = board.attacks.findAttacker(side.opposite(), king.location);
+            return attacker != null ? result.yes(attacker) : result.no();
+        }
+        if(board.bitboard != null){
+            ChessPiece attacker = board.bitboard.findAttacker(side.opposite(), king.location);
+            return attacker != null ? result.yes(attacker) : result.no();
+        }
+
         for(ChessPiece piece : board.pieces){
             if(piece.side == side){
                 continue;
@@ -121,6 +154,18 @@ public class NormalGameRule extends GameRule {
         return result.no();
     }
 
+    /**
+     * Check if the king of a side is attacked, without building a KingCheckCheckerResult.
+     * @param side    Side of the king
+     * @return  True if in check
+     */
+    public boolean isInCheck(Side side){
+        if(board.attacks != null){
+            return board.attacks.isAttacked(side.opposite(), kings[side.toInt()].location);
+        }
+        return KingBeingCheckChecker(side).isCheck;
+    }
+
     public class KingCheckCheckerResult {
         boolean isCheck;
         ChessPiece offensivePiece;
@@ -177,7 +222,9 @@ public class NormalGameRule extends GameRule {
          *
          * Offensive piece can be eliminated.
          */
-        for(ChessPiece piece : board.pieces){
+        // trying a move reverts captures in place, so indices stay valid
+        for(int i = 0; i < board.pieces.size(); i++){
+            ChessPiece piece = board.pieces.get(i);
             if(piece.side == offensivePiece.side)  continue;
             if(isMoveLegal(piece, board.getLoc(offensivePiece.location))){
                 /**
@@ -201,15 +248,19 @@ public class NormalGameRule extends GameRule {
          *
          * Path to offensive piece can be blocked.
          */
-        //Get direction from offensive piece to king
-        Direction direction = board.getLoc(offensivePiece).getDirection(kingLocation);
-        int initialLocId = direction.actions.next(offensivePiece.location, board.dimension);
+        //Get direction from offensive piece to king, a Knight cannot be blocked
+        Direction direction = board.geometry.direction(offensivePiece.location, selfKing.location);
+        if(direction == null){
+            return true;
+        }
+        int[] path = board.geometry.ray(direction, offensivePiece.location);
 
         // loop over the path
-        for(int currentId = initialLocId; currentId != selfKing.location; currentId = direction.actions.next(currentId, board.dimension)){
-            Location pointInPath = board.getLoc(currentId);
+        for(int step = 0; path[step] != selfKing.location; step++){
+            Location pointInPath = board.getLoc(path[step]);
 
-            for(ChessPiece piece : board.pieces){
+            for(int i = 0; i < board.pieces.size(); i++){
+                ChessPiece piece = board.pieces.get(i);
                 if(piece.side != selfKing.side || piece.type == PieceType.KING) continue;
                 if(isMoveLegal(piece, pointInPath)){
                     /**
@@ -240,187 +291,335 @@ public class NormalGameRule extends GameRule {
      * @return  True if there is no legal moves left.
      */
     public boolean checkStalemate(Side side){
+        return generateMoves(side).isEmpty();
+    }
+
+    /**
+     * Generate all legal moves of a side.
+     * @param side    Side to move
+     * @return  A MoveList owned by the rule, only valid until the next call
+     */
+    public MoveList generateMoves(Side side){
+        moveBuffer.clear();
+        generateMoves(side, moveBuffer);
+        return moveBuffer;
+    }
+
+    /**
+     * Generate all legal moves of a single piece.
+     * @param piece    Piece to move
+     * @return  A MoveList owned by the rule, only valid until the next call
+     */
+    public MoveList generateMoves(ChessPiece piece){
+        moveBuffer.clear();
+        generateMoves(piece, moveBuffer);
+        return moveBuffer;
+    }
+
+    /**
+     * Append all legal moves of a side to a MoveList.
+     * @param side     Side to move
+     * @param moves    Buffer to append to
+     * @return  Number of moves appended
+     */
+    public int generateMoves(Side side, MoveList moves){
+        int start = moves.size();
         for(ChessPiece piece : board.pieces){
             if(piece.side == side){
-                for(int x = 0; x < width; x++){
-                    for(int y = 0; y < height; y++){
-                        boolean movable = board.move(piece, board.getLoc(x, y), true);
-                        if(movable){
-                            return false;
-                        }
-                    }
-                }
+                generatePseudoMoves(piece, moves);
             }
         }
-        return true;
+        return filterLegalMoves(side, moves, start);
     }
 
     /**
-     * Internal move validator
+     * Append all legal moves of a single piece to a MoveList.
+     * @param piece    Piece to move
+     * @param moves    Buffer to append to
+     * @return  Number of moves appended
      */
-    private class Validator{
-        Side side;
-        Location _from, _to, from, to;
-        ChessPiece validatee;
-        ChessPiece possibleTarget;
-        boolean isValid;
-
-        /**
-         * Initialize validator with a chess piece
-         * @param piece    Piece to run validation on
-         */
-        Validator(ChessPiece piece){
-            this.validatee = piece;
-            this.side = piece.side;
+    public int generateMoves(ChessPiece piece, MoveList moves){
+        int start = moves.size();
+        if(piece.location != -1){
+            generatePseudoMoves(piece, moves);
         }
+        return filterLegalMoves(piece.side, moves, start);
+    }
 
-        /**
-         * Validate move
-         * @param oldLoc    Origin
-         * @param newLoc    Destination
-         * @return boolean
-         */
-        boolean validate(Location oldLoc, Location newLoc){
-            possibleTarget = board.getPieceAtLocation(newLoc);
-            _from = oldLoc.clone();
-            _to = newLoc.clone();
-            from = oldLoc.clone();
-            to = newLoc.clone();
-
-            if(side == Side.WHITE){
-                from.y = (height - 1) - from.y;
-                to.y = (height - 1) - to.y;
+    /**
+     * Append the legal captures of a side to a MoveList, including Cannon hops.
+     * @param side     Side to move
+     * @param moves    Buffer to append to
+     * @return  Number of moves appended
+     */
+    public int generateCaptures(Side side, MoveList moves){
+        int start = moves.size();
+        for(ChessPiece piece : board.pieces){
+            if(piece.side == side){
+                generatePseudoMoves(piece, moves);
             }
+        }
 
-            isValid = false;
-
-            switch (validatee.type){
-                case PAWN:   Pawn(); break;
-                case ROOK:   Rook(); break;
-                case BISHOP: Bishop(); break;
-                case QUEEN:  Queen(); break;
-                case KING:   King(); break;
-                case KNIGHT: Knight(); break;
-                case CANNON: Cannon(); break;
-                case TURNER: Turner(); break;
+        // quiet moves are dropped before the more expensive legality check
+        int end = start;
+        for(int i = start; i < moves.size(); i++){
+            if(board.getPieceAtLocation(Move.getTo(moves.get(i))) != null){
+                moves.set(end++, moves.get(i));
             }
-
-            return isValid;
         }
+        moves.truncate(end);
+        return filterLegalMoves(side, moves, start);
+    }
 
-        /**
-         * isCross
-         * @return  True if a movement is horizontal or vertical
-         */
-        boolean isCross(){
-            return to.x == from.x || to.y == from.y;
+    /**
+     * Drop the moves that would leave the own king in check.
+     * With an AttackMap, pins and checks are computed once and no move is applied.
+     * Otherwise every move is tried on the board, after all pseudo moves are generated,
+     * since trying a capture reorders board.pieces.
+     * @param side     Side to move
+     * @param moves    Buffer holding the pseudo legal moves
+     * @param start    Index of the first move to be checked
+     * @return  Number of legal moves left after start
+     */
+    private int filterLegalMoves(Side side, MoveList moves, int start){
+        boolean masked = board.attacks != null && kings[side.toInt()].location != -1;
+        if(masked){
+            checkMask.compute(kings[side.toInt()]);
         }
 
-        /**
-         * isDiagonal
-         * @return  True if a movement is diagonal
-         */
-        boolean isDiagonal(){
-            //return (to.id - from.id) % (width - 1) == 0 || (to.id - from.id) % (width + 1) == 0;
-            return Math.abs(to.x - from.x) == Math.abs(to.y - from.y);
-        }
-
-        void Pawn(){
-            //valid cases
-            if(to.x == from.x && to.y - from.y == 1 && possibleTarget == null){
-                isValid = true;
-            }else if(Math.abs(to.x - from.x) == 1 && to.y - from.y == 1 && possibleTarget != null){
-                isValid = true;
-            }else if(!validatee.moved && to.x == from.x && to.y - from.y == 2 && possibleTarget == null){
-                isValid = true;
-            }
-
-            if(isValid){
-                if(board.findCollision(_from.getDirection(_to), _from.id, _to.id) != null){
-                    isValid = false;
-                }
+        int end = start;
+        for(int i = start; i < moves.size(); i++){
+            int move = moves.get(i);
+            ChessPiece piece = board.getPieceAtLocation(Move.getFrom(move));
+            boolean legal = masked
+                    ? checkMask.isLegal(piece, Move.getTo(move))
+                    : board.isMoveSafe(piece, board.getLoc(Move.getTo(move)));
+            if(legal){
+                moves.set(end++, move);
             }
         }
+        moves.truncate(end);
+        return end - start;
+    }
 
-        void Rook(){
-            //valid cases
-            isValid = isCross();
+    /**
+     * Generate the moves a piece can make by its type, walking only the squares it can reach.
+     * Moves generated here match validate but may leave the own king in check.
+     * @param piece    Piece to move
+     * @param moves    Buffer to append to
+     */
+    private void generatePseudoMoves(ChessPiece piece, MoveList moves){
+        if(board.bitboard != null){
+            board.bitboard.addMoves(piece, moves);
+            return;
+        }
 
-            if(isValid){
-                if(board.findCollision(_from.getDirection(_to), _from.id, _to.id) != null){
-                    isValid = false;
+        ChessPiece[] mailbox = board.mailbox;
+        BoardGeometry geometry = board.geometry;
+        int cell = geometry.cellOf[piece.location];
+
+        switch (piece.type){
+            case PAWN:
+                int forward = geometry.offsets[(piece.side == Side.WHITE ? Direction.N : Direction.S).ordinal()];
+                if(mailbox[cell + forward] == null){
+                    addMove(piece, cell + forward, moves);
+                    if(!piece.moved && mailbox[cell + 2 * forward] == null){
+                        addMove(piece, cell + 2 * forward, moves);
+                    }
                 }
-            }
+                for(int dx = -1; dx <= 1; dx += 2){
+                    if(mailbox[cell + forward + dx] != null){
+                        addMove(piece, cell + forward + dx, moves);
+                    }
+                }
+                break;
+            case KNIGHT:
+                for(int offset : geometry.knightOffsets){
+                    addMove(piece, cell + offset, moves);
+                }
+                break;
+            case KING:
+                for(Direction direction : Direction.ALL){
+                    addMove(piece, cell + geometry.offsets[direction.ordinal()], moves);
+                }
+                break;
+            case ROOK:
+                addSlides(piece, Direction.ORTHOGONAL, moves);
+                break;
+            case BISHOP:
+                addSlides(piece, Direction.DIAGONAL, moves);
+                break;
+            case QUEEN:
+                addSlides(piece, Direction.ALL, moves);
+                break;
+            case TURNER:
+                addSlides(piece, Direction.ORTHOGONAL, moves);
+                break;
+            case CANNON:
+                addHops(piece, moves);
+                break;
         }
+    }
 
-        void Bishop(){
-            //valid cases
-            isValid = isDiagonal();
+    /**
+     * Append a move if the destination is on the board and not taken by the own side.
+     * @param piece    Piece to move
+     * @param cell     Destination mailbox index
+     * @param moves    Buffer to append to
+     */
+    private void addMove(ChessPiece piece, int cell, MoveList moves){
+        ChessPiece target = board.mailbox[cell];
+        if(target == null || (target != SquareBoard.OFF_BOARD && target.side != piece.side)){
+            moves.add(Move.encode(piece.location, board.geometry.idOf[cell]));
+        }
+    }
 
-            if(isValid){
-                if(board.findCollision(_from.getDirection(_to), _from.id, _to.id) != null){
-                    isValid = false;
-                }
-            }
+    /**
+     * Append the empty squares of a ray up to the first piece or the edge.
+     * @param piece    Piece to move
+     * @param cell     Mailbox index the ray starts from, exclusive
+     * @param step     Mailbox step of the direction
+     * @param moves    Buffer to append to
+     * @return  Mailbox index of the first piece or sentinel on the ray
+     */
+    private int addRay(ChessPiece piece, int cell, int step, MoveList moves){
+        for(cell += step; board.mailbox[cell] == null; cell += step){
+            moves.add(Move.encode(piece.location, board.geometry.idOf[cell]));
         }
+        return cell;
+    }
 
-        void Queen(){
-            //valid cases
-            isValid = isCross() || isDiagonal();
+    /**
+     * Append sliding moves until the first piece in each direction.
+     * A Turner skips the direction it moved in last time.
+     * @param piece         Piece to move
+     * @param directions    Directions to slide in
+     * @param moves         Buffer to append to
+     */
+    private void addSlides(ChessPiece piece, Direction[] directions, MoveList moves){
+        int cell = board.geometry.cellOf[piece.location];
+        for(Direction direction : directions){
+            if(piece.type == PieceType.TURNER && piece.previousDirection == direction) continue;
 
-            if(isValid){
-                if(board.findCollision(_from.getDirection(_to), _from.id, _to.id) != null){
-                    isValid = false;
-                }
-            }
+            addMove(piece, addRay(piece, cell, board.geometry.offsets[direction.ordinal()], moves), moves);
         }
+    }
 
-        void King(){
-            //valid cases
-            if(Math.abs(to.x - from.x) <= 1 && Math.abs(to.y - from.y) <= 1){
-                isValid = true;
+    /**
+     * Append the moves of a Cannon. It slides like a Rook, or hops over exactly one piece
+     * to any square up to and including the next piece, which must not be a king.
+     * @param piece    Cannon to move
+     * @param moves    Buffer to append to
+     */
+    private void addHops(ChessPiece piece, MoveList moves){
+        int cell = board.geometry.cellOf[piece.location];
+        for(Direction direction : Direction.ORTHOGONAL){
+            int step = board.geometry.offsets[direction.ordinal()];
+            int screen = addRay(piece, cell, step, moves);
+            if(board.mailbox[screen] == SquareBoard.OFF_BOARD)  continue;
+            addMove(piece, screen, moves);
+
+            // hop over the screen
+            int target = addRay(piece, screen, step, moves);
+            ChessPiece targetPiece = board.mailbox[target];
+            if(targetPiece != SquareBoard.OFF_BOARD && targetPiece.type != PieceType.KING){
+                addMove(piece, target, moves);
             }
         }
+    }
 
-        void Knight(){
-            //valid cases
-            isValid = !isCross() && !isDiagonal() && Math.abs(to.x - from.x) <= 2 && Math.abs(to.y - from.y) <= 2;
+    /**
+     * Internal move validator, on location ids with plain arithmetic so that it
+     * allocates nothing.
+     * @param piece    Piece to run validation on
+     * @param from     Origin id
+     * @param to       Destination id
+     * @return  True if the move follows the movement of the piece
+     */
+    private boolean validate(ChessPiece piece, int from, int to){
+        ChessPiece possibleTarget = board.getPieceAtLocation(to);
+        Direction direction = board.geometry.direction(from, to);
+
+        switch (piece.type){
+            case PAWN:   return isPawnMove(piece, from, to, direction, possibleTarget);
+            case ROOK:   return isCross(direction) && board.findCollision(direction, from, to) == null;
+            case BISHOP: return isDiagonal(direction) && board.findCollision(direction, from, to) == null;
+            case QUEEN:  return (isCross(direction) || isDiagonal(direction)) && board.findCollision(direction, from, to) == null;
+            case KING:   return board.geometry.isAdjacent(from, to);
+            case KNIGHT: return board.geometry.isKnightJump(from, to);
+            case CANNON: return isCannonMove(from, to, direction, possibleTarget);
+            case TURNER: return isTurnerMove(piece, from, to, direction);
         }
+        return false;
+    }
 
-        /**
-         * A Cannon is a special piece which its movement mimics the 炮 in Chinese Chess, except
-         * the king cannot be captured when hopping over another piece.
-         */
-        void Cannon(){
-            //valid cases
-            if(isCross() && !isDiagonal()){
-                Direction direction = _from.getDirection(_to);
-                Location location = board.getLoc(direction.actions.next(_from.id, width));
-                int numberOfPieces = 0;
-                while (!location.equals(_to)) {
-                    if (board.getPieceAtLocation(location) != null) {
-                        // not valid if there are more than 1 piece in between
-                        if (numberOfPieces == 1) return;
-                        else numberOfPieces++;
-                    }
-                    location = board.getLoc(direction.actions.next(location.id, width));
-                }
-                // only valid when there is only 0 or 1 piece in between
-                isValid = !(numberOfPieces == 1 && possibleTarget != null && possibleTarget.type == PieceType.KING);
-            }
+    /**
+     * isCross
+     * @param direction    Direction of the movement, null if not on a line
+     * @return  True if a movement is horizontal or vertical
+     */
+    private static boolean isCross(Direction direction){
+        return direction != null && (direction.dx == 0 || direction.dy == 0);
+    }
+
+    /**
+     * isDiagonal
+     * @param direction    Direction of the movement, null if not on a line
+     * @return  True if a movement is diagonal
+     */
+    private static boolean isDiagonal(Direction direction){
+        return direction != null && direction.dx != 0 && direction.dy != 0;
+    }
+
+    /**
+     * Rows are counted from the side of the Pawn, by negating the row difference for
+     * White, so that Pawns of both sides advance by a positive difference.
+     */
+    private boolean isPawnMove(ChessPiece pawn, int from, int to, Direction direction, ChessPiece possibleTarget){
+        BoardGeometry geometry = board.geometry;
+        int dx = geometry.xOf[to] - geometry.xOf[from];
+        int forward = geometry.yOf[to] - geometry.yOf[from];
+        if(pawn.side == Side.WHITE) forward = -forward;
+
+        //valid cases
+        boolean isValid = false;
+        if(dx == 0 && forward == 1 && possibleTarget == null){
+            isValid = true;
+        }else if(Math.abs(dx) == 1 && forward == 1 && possibleTarget != null){
+            isValid = true;
+        }else if(!pawn.moved && dx == 0 && forward == 2 && possibleTarget == null){
+            isValid = true;
         }
+        return isValid && board.findCollision(direction, from, to) == null;
+    }
 
-        /**
-         * A Turner has the same movement as a Rook, however it must go to a different direction
-         * every time it moves.
-         */
-        void Turner(){
-            //valid cases
-            Rook();
-            if(validatee.previousDirection == _from.getDirection(_to)){
-                isValid = false;
+    /**
+     * A Cannon is a special piece which its movement mimics the 炮 in Chinese Chess, except
+     * the king cannot be captured when hopping over another piece.
+     */
+    private boolean isCannonMove(int from, int to, Direction direction, ChessPiece possibleTarget){
+        if(!isCross(direction)) return false;
+
+        BoardGeometry geometry = board.geometry;
+        int step = geometry.offsets[direction.ordinal()], end = geometry.cellOf[to];
+        int numberOfPieces = 0;
+        for(int cell = geometry.cellOf[from] + step; cell != end; cell += step) {
+            if (board.mailbox[cell] != null) {
+                // not valid if there are more than 1 piece in between
+                if (numberOfPieces == 1) return false;
+                else numberOfPieces++;
             }
         }
+        // only valid when there is only 0 or 1 piece in between
+        return !(numberOfPieces == 1 && possibleTarget != null && possibleTarget.type == PieceType.KING);
+    }
+
+    /**
+     * A Turner has the same movement as a Rook, however it must go to a different direction
+     * every time it moves.
+     */
+    private boolean isTurnerMove(ChessPiece turner, int from, int to, Direction direction){
+        return turner.previousDirection != direction && isCross(direction) && board.findCollision(direction, from, to) == null;
     }
 
 
@@ -464,9 +663,14 @@ public class NormalGameRule extends GameRule {
                 return false;
         }
 
-        for(ChessPiece piece : board.pieces){
-            if(piece.side == board.getTurn() && piece.type == type && board.move(piece, dest)){
-                return true;
+        MoveList moves = generateMoves(board.getTurn());
+        for(int i = 0; i < moves.size(); i++){
+            int move = moves.get(i);
+            if(Move.getTo(move) != dest.id)  continue;
+
+            ChessPiece piece = board.getPieceAtLocation(Move.getFrom(move));
+            if(piece.type == type){
+                return board.move(piece, dest);
             }
         }
 
@@ -474,6 +678,118 @@ public class NormalGameRule extends GameRule {
     }
 
 
+    /**
+     * Play an encoded move on the board like a player would, updating the history and the game status.
+     * @param move    Legal move, as generated by generateMoves
+     * @return  True if the move is played
+     */
+    public boolean playMove(int move){
+        return board.move(board.getPieceAtLocation(Move.getFrom(move)), board.getLoc(Move.getTo(move)));
+    }
+
+    /**
+     * Describe the position in a FEN-like string.
+     *
+     * Rows are listed from the top of the board, which is Black's side, and separated
+     * by '/'. Pieces use the letters k, q, r, b, n, p, c (Cannon) and t (Turner), upper
+     * case for White, and a number stands for that many empty squares. The side to move
+     * follows as w or b, then the previous Direction of every Turner in reading order,
+     * separated by commas, if there are any. Whether a Pawn has moved follows from its row.
+     *
+     * For example the standard 8x8 position is "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w".
+     * @return  Position string
+     */
+    public String toPosition(){
+        StringBuilder result = new StringBuilder(), turners = new StringBuilder();
+        for(int y = 0; y < height; y++){
+            if(y > 0)   result.append('/');
+
+            int empty = 0;
+            for(int x = 0; x < width; x++){
+                ChessPiece piece = board.getPieceAtLocation(y * width + x);
+                if(piece == null){
+                    empty++;
+                    continue;
+                }
+                if(empty > 0)   result.append(empty);
+                empty = 0;
+                result.append(piece.type.toLetter(piece.side));
+
+                if(piece.type == PieceType.TURNER){
+                    if(turners.length() > 0)    turners.append(',');
+                    turners.append(piece.previousDirection == null ? Direction.NONE : piece.previousDirection);
+                }
+            }
+            if(empty > 0)   result.append(empty);
+        }
+
+        result.append(board.getTurn() == Side.WHITE ? " w" : " b");
+        if(turners.length() > 0)    result.append(' ').append(turners);
+        return result.toString();
+    }
+
+    /**
+     * Set up a square board from a position string.
+     * @see #toPosition()
+     * @param position    Position string
+     * @return  A NormalGameRule with the dimension given by the number of rows
+     */
+    public static NormalGameRule fromPosition(String position){
+        String[] fields = position.trim().split("\\s+");
+        String[] rows = fields[0].split("/");
+        String[] directions = fields.length > 2 ? fields[2].split(",") : new String[0];
+        int dimension = rows.length, turners = 0;
+
+        NormalGameRule rule = new NormalGameRule(dimension, dimension, false);
+        SquareBoard board = rule.board;
+
+        for(int y = 0; y < dimension; y++){
+            int x = 0;
+            for(int i = 0; i < rows[y].length(); i++){
+                char c = rows[y].charAt(i);
+                if(Character.isDigit(c)){
+                    int empty = 0;
+                    for(; i < rows[y].length() && Character.isDigit(rows[y].charAt(i)); i++){
+                        empty = empty * 10 + rows[y].charAt(i) - '0';
+                    }
+                    i--;
+                    x += empty;
+                    continue;
+                }
+
+                PieceType type = PieceType.fromLetter(c);
+                if(type == null || x >= dimension)  throw new IllegalArgumentException("Invalid position");
+                Side side = Character.isUpperCase(c) ? Side.WHITE : Side.BLACK;
+
+                ChessPiece piece = new ChessPiece(type, side, y * dimension + x);
+                piece.moved = type == PieceType.PAWN && y != (side == Side.BLACK ? 1 : 6);
+                if(type == PieceType.TURNER && turners < directions.length){
+                    piece.previousDirection = Direction.valueOf(directions[turners++]);
+                }
+                if(type == PieceType.KING){
+                    if(rule.kings[side.toInt()] != null)    throw new IllegalArgumentException("Invalid position");
+                    rule.kings[side.toInt()] = piece;
+                }
+                board.place(piece);
+                x++;
+            }
+            if(x != dimension)  throw new IllegalArgumentException("Invalid position");
+        }
+
+        if(rule.kings[0] == null || rule.kings[1] == null)  throw new IllegalArgumentException("Invalid position");
+        board.move = fields.length > 1 && fields[1].equals("b") ? 1 : 0;
+        return rule;
+    }
+
+    /**
+     * Copy the current position onto a new rule and board, which share no state
+     * with this one and can be searched from another thread. The move history is not copied.
+     * @return  A NormalGameRule in the same position
+     */
+    public NormalGameRule copy(){
+        return fromPosition(toPosition());
+    }
+
     /**
      * Handles click events from GUI.
      * @param location    Location clicked
@@ -483,6 +799,15 @@ public class NormalGameRule extends GameRule {
         return guiController.consider(location);
     }
 
+    /**
+     * Leave check and the end of the game after moves picked by clicks to the GUI,
+     * which finds them with an AnalysisService instead of on the event dispatch thread.
+     * @param defer    True to leave them to the GUI
+     */
+    public void deferStatusOfClicks(boolean defer){
+        guiController.deferStatus = defer;
+    }
+
     /**
      * GUI Controller singleton
      */
@@ -491,6 +816,7 @@ public class NormalGameRule extends GameRule {
         NormalGameRule rule;
         ChessPiece activePiece;
         Location origin;
+        boolean deferStatus;    /**< Leave check and the end of the game after a move to the GUI */
 
 
         GUIController(NormalGameRule rule){
@@ -561,7 +887,7 @@ public class NormalGameRule extends GameRule {
                 return result;
             }
 
-            boolean canMove = rule.board.move(activePiece, location);
+            boolean canMove = rule.board.move(activePiece, location, false, !deferStatus);
 
             if(canMove){
                 state = State.PICKING_PRIMARY;
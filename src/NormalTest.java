@@ -2,6 +2,17 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.*;
 
 public class NormalTest {
@@ -137,8 +148,8 @@ public class NormalTest {
     }
 
     /**
-     * Test NormalGameRule.Validator.
-     * @see NormalGameRule.Validator#validate(Location, Location)
+     * Test the move validator of NormalGameRule.
+     * @see NormalGameRule#isMoveLegal(ChessPiece, Object)
      */
     @Test
     public void Validator(){
@@ -184,6 +195,43 @@ public class NormalTest {
 
     }
 
+    /**
+     * Test that isMoveLegal allocates nothing, with the bitboard and with the mailbox fallback.
+     */
+    @Test
+    public void ValidatorAllocation(){
+        NormalGameRule rule = new NormalGameRule(8, 8);
+        rule.setCustomPieces(true);
+        rule.board.resetPosition();
+        SquareBoard board = rule.board;
+        BitBoard bitboard = board.bitboard;
+        assertNotNull(bitboard);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for(BitBoard backend : new BitBoard[]{bitboard, null}){
+            board.bitboard = backend;
+            int legal = 0;
+            long fewest = Long.MAX_VALUE;
+            // warm-up rounds load classes, build shared tables and let the JIT settle,
+            // which may allocate during any single round, so the fewest bytes of the rest count
+            for(int round = 0; round < 60; round++){
+                long before = threads.getThreadAllocatedBytes(thread);
+                for(int i = 0; i < board.pieces.size(); i++){
+                    ChessPiece piece = board.pieces.get(i);
+                    for(int id = 0; id <= board.maxId; id++){
+                        if(id != piece.location && rule.isMoveLegal(piece, board.getLoc(id)))  legal++;
+                    }
+                }
+                long allocated = threads.getThreadAllocatedBytes(thread) - before;
+                if(round >= 50) fewest = Math.min(fewest, allocated);
+            }
+            assertEquals(0, fewest);
+            assertTrue(legal > 0);
+        }
+        board.bitboard = bitboard;
+    }
+
     /**
      * Validation test for custom pieces
      */
@@ -308,4 +356,839 @@ public class NormalTest {
             }
         }
     }
+
+    /**
+     * Test the legal move generator against trying every square on the board.
+     * @see NormalGameRule#generateMoves(Side)
+     */
+    @Test
+    public void GenerateMoves(){
+        NormalGameRule rule = new NormalGameRule(8, 8);
+        SquareBoard board = rule.board;
+
+        assertEquals(20, rule.generateMoves(Side.WHITE).size());
+
+        rule.setCustomPieces(true);
+        board.resetPosition();
+        String[] sequence = {"pd4", "pe5", "pa4", "pa5"};
+        assertTrue(moveSequence(rule, sequence));
+
+        for(Side side : new Side[]{Side.BLACK, Side.WHITE}){
+            int expected = 0;
+            for(ChessPiece piece : board.pieces.toArray(new ChessPiece[0])){
+                if(piece.side != side)  continue;
+                for(int id = 0; id <= board.maxId; id++){
+                    if(board.isMoveSafe(piece, board.getLoc(id))){
+                        expected++;
+                    }
+                }
+            }
+            assertEquals(expected, rule.generateMoves(side).size());
+        }
+    }
+
+    /**
+     * Test that boards of a dimension share one canonical Location per id.
+     */
+    @Test
+    public void SharedLocations(){
+        SquareBoard board = new NormalGameRule(8, 8).board, other = new NormalGameRule(8, 8).board;
+        assertSame(board.getLoc(3, 5), board.getLoc(43));
+        assertSame(board.getLoc(3, 5), other.getLoc(3, 5));
+        assertSame(board.getLoc(board.getPieceAtLocation(4, 7)), board.getLoc(60));
+        assertTrue(board.getLoc(3, 5).equals(other.getLoc(43)));
+        assertFalse(board.getLoc(3, 5).equals(board.getLoc(5, 3)));
+        assertNotSame(board.getLoc(3, 5), new NormalGameRule(10, 10).board.getLoc(3, 5));
+
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("Invalid ID");
+        board.getLoc(64);
+    }
+
+    /**
+     * Test the bitboard backend against the move validator of NormalGameRule on an 8x8 board.
+     * @see BitBoard64
+     */
+    @Test
+    public void BitBoardBackend(){
+        NormalGameRule rule = new NormalGameRule(8, 8);
+        rule.setCustomPieces(true);
+        rule.board.resetPosition();
+        SquareBoard board = rule.board;
+        assertTrue(board.bitboard instanceof BitBoard64);
+
+        String[] sequence = {"pd4", "pe5", "pa4", "pa5", "pd5", "qe7"};
+        assertTrue(moveSequence(rule, sequence));
+
+        compareWithValidator(rule);
+        assertFalse(rule.KingBeingCheckChecker(Side.WHITE).isCheck);
+    }
+
+    /**
+     * Test the multi-word bitboard backend on the default 15x15 board.
+     * @see BitBoard256
+     */
+    @Test
+    public void WideBitBoardBackend(){
+        NormalGameRule rule = new NormalGameRule();
+        rule.setCustomPieces(true);
+        rule.board.resetPosition();
+        SquareBoard board = rule.board;
+        assertTrue(board.bitboard instanceof BitBoard256);
+
+        board.add(new ChessPiece(PieceType.CANNON, Side.BLACK, board.getLoc(12, 7).id));
+        board.add(new ChessPiece(PieceType.TURNER, Side.WHITE, board.getLoc(14, 13).id));
+        assertTrue(board.move(board.getPieceAtLocation(7, 7), board.getLoc(7, 12)));     // rook into the open area
+        assertTrue(board.move(board.getPieceAtLocation(12, 7), board.getLoc(14, 7)));   // cannon to the edge
+        assertTrue(board.move(board.getPieceAtLocation(14, 13), board.getLoc(14, 8)));  // turner below the cannon
+
+        compareWithValidator(rule);
+    }
+
+    /**
+     * Test the precomputed geometry tables.
+     * @see BoardGeometry
+     */
+    @Test
+    public void Geometry(){
+        NormalGameRule rule = new NormalGameRule();
+        BoardGeometry geometry = rule.board.geometry;
+        assertSame(geometry, new NormalGameRule().board.geometry);
+
+        int corner = rule.board.getLoc(0, 0).id, center = rule.board.getLoc(7, 7).id;
+        assertEquals(2, geometry.knight[corner].length);
+        assertEquals(8, geometry.knight[center].length);
+        assertEquals(3, geometry.king[corner].length);
+        assertEquals(14, geometry.ray(Direction.SE, corner).length);
+
+        assertEquals(Direction.SE, geometry.direction(corner, center));
+        assertEquals(Direction.NW, geometry.direction(center, corner));
+        assertNull(geometry.direction(corner, rule.board.getLoc(1, 2).id));
+        assertTrue(geometry.isKnightJump(corner, rule.board.getLoc(1, 2).id));
+        assertTrue(geometry.isAdjacent(center, rule.board.getLoc(8, 6).id));
+        assertEquals(7, geometry.distance(corner, center));
+
+        // the empty rows below the pieces, with a single blocker
+        ChessPiece blocker = new ChessPiece(PieceType.PAWN, Side.BLACK, rule.board.getLoc(5, 10).id);
+        rule.board.add(blocker);
+        assertSame(blocker, rule.board.findCollision(Direction.E, rule.board.getLoc(0, 10).id, rule.board.getLoc(10, 10).id));
+        assertNull(rule.board.findCollision(Direction.E, blocker.location, rule.board.getLoc(10, 10).id));
+    }
+
+    /**
+     * Test the padded mailbox on a board too wide for a bitboard.
+     */
+    @Test
+    public void Mailbox(){
+        NormalGameRule rule = new NormalGameRule(20, 20);
+        SquareBoard board = rule.board;
+        assertNull(board.bitboard);
+
+        // every cell outside the board holds the sentinel
+        int onBoard = 0;
+        for(ChessPiece cell : board.mailbox){
+            if(cell != SquareBoard.OFF_BOARD)   onBoard++;
+        }
+        assertEquals(20 * 20, onBoard);
+
+        // a Knight in the corner and a Rook on the right edge must not wrap around
+        ChessPiece knight = new ChessPiece(PieceType.KNIGHT, Side.WHITE, board.getLoc(0, 19).id);
+        ChessPiece rook = new ChessPiece(PieceType.ROOK, Side.WHITE, board.getLoc(19, 12).id);
+        board.add(knight);
+        board.add(rook);
+        assertEquals(2, rule.generateMoves(knight).size());
+        assertEquals(19 + 19, rule.generateMoves(rook).size());    // the whole row and column
+        assertNull(board.findCollision(Direction.E, rook.location, board.getLoc(0, 13).id));
+
+        board.remove(board.getPieceAtLocation(0, 0));
+        ChessPiece corner = new ChessPiece(PieceType.KNIGHT, Side.WHITE, board.getLoc(0, 0).id);
+        board.add(corner);
+        assertEquals(2, rule.generateMoves(corner).size());
+
+        // ids off either end of the board are rejected, not looked up in the padding
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("Invalid ID");
+        board.getPieceAtLocation(-1);
+    }
+
+    /**
+     * Test the incrementally updated attack maps.
+     * @see AttackMap
+     */
+    @Test
+    public void AttackMaps(){
+        NormalGameRule rule = new NormalGameRule(8, 8);
+        SquareBoard board = rule.board;
+        AttackMap attacks = board.attacks;
+
+        int f3 = board.getLoc(5, 5).id, e7 = board.getLoc(4, 1).id;
+        assertEquals(3, attacks.count(Side.WHITE, f3));     // pawns on e2 and g2, knight on g1
+        assertEquals(0, attacks.count(Side.BLACK, f3));
+        assertEquals(4, attacks.count(Side.BLACK, e7));     // king, queen, bishop and knight defend e7
+
+        // opening the diagonal of the bishop on f1 reaches b5, and a7 once the pawn leaves
+        assertTrue(moveSequence(rule, new String[]{"pe4", "pd5"}));
+        assertSame(board.getPieceAtLocation(5, 7), attacks.findAttacker(Side.WHITE, board.getLoc(1, 3).id));
+        assertTrue(attacks.isAttacked(Side.BLACK, board.getLoc(4, 4).id));  // pawn on d5 attacks e4
+
+        // giving check, then undoing it
+        assertTrue(moveSequence(rule, new String[]{"bb5"}));
+        ChessPiece bishop = board.getPieceAtLocation(1, 3);
+        assertSame(bishop, rule.KingBeingCheckChecker(Side.BLACK).offensivePiece);
+        board.undo(1);
+        assertFalse(rule.KingBeingCheckChecker(Side.BLACK).isCheck);
+        assertEquals(3, attacks.count(Side.WHITE, f3));
+    }
+
+    /**
+     * Test legal move generation with pins and checks, which does not try moves on the board.
+     * @see CheckMask
+     */
+    @Test
+    public void PinsAndChecks(){
+        NormalGameRule rule = new NormalGameRule(8, 8);
+        SquareBoard board = rule.board;
+        for(int i = board.pieces.size() - 1; i >= 0; i--){
+            if(board.pieces.get(i).type != PieceType.KING){
+                board.remove(board.pieces.get(i));
+            }
+        }
+
+        // the Cannon is pinned, it may move up to the Rook but not hop over it
+        ChessPiece cannon = new ChessPiece(PieceType.CANNON, Side.WHITE, board.getLoc(4, 6).id);
+        board.add(cannon);
+        board.add(new ChessPiece(PieceType.ROOK, Side.BLACK, board.getLoc(4, 3).id));
+        assertEquals(3, rule.generateMoves(cannon).size());
+        compareWithTryMoves(rule);
+
+        // a Knight check can only be answered by the king
+        board.add(new ChessPiece(PieceType.KNIGHT, Side.BLACK, board.getLoc(3, 5).id));
+        assertEquals(0, rule.generateMoves(cannon).size());
+        compareWithTryMoves(rule);
+
+        // double check
+        board.remove(cannon);
+        assertEquals(2, Long.bitCount(board.attacks.attackers[Side.BLACK.toInt()][board.geometry.cellOf[rule.kings[1].location]]));
+        MoveList moves = rule.generateMoves(Side.WHITE);
+        for(int i = 0; i < moves.size(); i++){
+            assertEquals(rule.kings[1].location, Move.getFrom(moves.get(i)));
+        }
+        compareWithTryMoves(rule);
+    }
+
+    /**
+     * Test Zobrist keys of positions.
+     * @see Zobrist
+     */
+    @Test
+    public void PositionHash(){
+        NormalGameRule rule = new NormalGameRule(8, 8);
+        SquareBoard board = rule.board;
+        long initial = board.hash();
+        assertEquals(initial, new NormalGameRule(8, 8).board.hash());
+        assertEquals(initial, board.zobrist.keyOf(board));
+
+        // Knights going out and back reach the same position
+        assertTrue(moveSequence(rule, new String[]{"nf3", "nf6", "ng1", "ng8"}));
+        assertEquals(initial, board.hash());
+
+        // transposition, and the side to move counts
+        assertTrue(moveSequence(rule, new String[]{"pa3", "pa6", "pb3"}));
+        long afterThree = board.hash();
+        assertNotEquals(initial, afterThree);
+        assertTrue(moveSequence(rule, new String[]{"pb6"}));
+        long transposed = board.hash();
+        board.undo(4);
+        assertEquals(initial, board.hash());
+        assertTrue(moveSequence(rule, new String[]{"pb3", "pb6", "pa3", "pa6"}));
+        assertEquals(transposed, board.hash());
+        assertEquals(board.zobrist.keyOf(board), board.hash());
+
+        // a Pawn which has moved differs from one which has not
+        ChessPiece pawn = board.getPieceAtLocation(7, 6);
+        long unmoved = board.zobrist.keyOf(pawn, pawn.location);
+        pawn.moved = true;
+        assertNotEquals(unmoved, board.zobrist.keyOf(pawn, pawn.location));
+        pawn.moved = false;
+    }
+
+    /**
+     * Test perft counts of the standard position, and that positions survive toPosition and fromPosition.
+     * @see Perft
+     */
+    @Test
+    public void PerftCounts(){
+        NormalGameRule rule = new NormalGameRule(8, 8);
+        SquareBoard board = rule.board;
+        String initial = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w";
+        assertEquals(initial, rule.toPosition());
+        long hash = board.hash();
+
+        List<ChessPiece> order = new ArrayList<>(board.pieces);
+        Perft perft = new Perft(rule);
+        assertEquals(20, perft.count(1));
+        assertEquals(400, perft.count(2));
+        assertEquals(8902, perft.count(3));
+
+        // makeMove and unmakeMove leave nothing behind
+        assertEquals(initial, rule.toPosition());
+        assertEquals(hash, board.hash());
+        assertEquals(order, board.pieces);
+        for(int i = 0; i < board.pieces.size(); i++){
+            assertEquals(i, board.pieces.get(i).index);
+        }
+
+        // positions keep the side to move, moved Pawns and Turner directions
+        NormalGameRule custom = new NormalGameRule(8, 8);
+        custom.setCustomPieces(true);
+        custom.board.resetPosition();
+        assertTrue(moveSequence(custom, new String[]{"pe4", "pd5"}));
+        assertTrue(custom.board.move(custom.board.getPieceAtLocation(5, 5), custom.board.getLoc(5, 4)));
+        String position = custom.toPosition();
+        assertTrue(position.endsWith(" b NONE,N"));
+
+        NormalGameRule copy = NormalGameRule.fromPosition(position);
+        assertEquals(position, copy.toPosition());
+        assertEquals(custom.board.hash(), copy.board.hash());
+        assertEquals(new Perft(custom).count(2), new Perft(copy).count(2));
+    }
+
+    /**
+     * Test that perft split over a ForkJoinPool, with and without a cache, counts as the plain walk does.
+     * @see Perft
+     */
+    @Test
+    public void ParallelPerft(){
+        NormalGameRule rule = new NormalGameRule(10, 10);
+        rule.setCustomPieces(true);
+        rule.board.resetPosition();
+        assertTrue(moveSequence(rule, new String[]{"pe6", "pd7"}));
+        long expected = new Perft(rule).count(3);
+
+        // a copy shares no pieces with the original
+        NormalGameRule copy = rule.copy();
+        assertEquals(rule.toPosition(), copy.toPosition());
+        copy.board.makeMove(copy.generateMoves(copy.board.getTurn()).get(0));
+        assertNotEquals(rule.toPosition(), copy.toPosition());
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        assertEquals(expected, new Perft(rule).count(3, 1, pool, null));
+        assertEquals(expected, new Perft(rule, new Perft.Cache(1)).count(3, 2, pool, null));
+        assertEquals(expected, new Perft(rule, new Perft.Cache(1)).count(3));
+        pool.shutdown();
+    }
+
+    /**
+     * Test the engine finding a mate in one and a Cannon capture, leaving the game untouched.
+     * @see Engine
+     */
+    @Test
+    public void EngineSearch(){
+        // back rank mate in one
+        NormalGameRule rule = NormalGameRule.fromPosition("6k1/5ppp/8/8/8/8/8/R5K1 w");
+        String position = rule.toPosition();
+        Engine engine = new Engine(1);
+        int[] depths = new int[1];
+        engine.listener = report -> depths[0] = report.depth;
+
+        int move = engine.think(rule, 4, 0);
+        assertEquals("a1a8", Move.toString(move, 8));
+        assertTrue(depths[0] >= 1);
+        assertEquals(position, rule.toPosition());
+
+        assertTrue(rule.playMove(move));
+        assertEquals(GameStatus.EndGameReason.CHECKMATE, rule.gameStatus.status);
+        assertEquals(Move.NONE, engine.think(rule, 4, 0));
+
+        // a Cannon hops over a piece to win the Queen, on a 10x10 board
+        rule = NormalGameRule.fromPosition("k9/10/10/3q6/10/3p6/10/10/3C6/K9 w");
+        assertEquals("d2d7", Move.toString(engine.think(rule, 2, 0), 10));
+    }
+
+    /**
+     * Test soft and hard budgets on a clock, and how the soft one follows the search.
+     * @see TimeManager
+     */
+    @Test
+    public void TimeManagerBudgets(){
+        TimeManager time = new TimeManager();
+        time.clock(60000, 600, 0);
+        assertEquals(2450, time.soft / 1000000);
+        assertEquals(9800, time.hard / 1000000);
+        // short of time the hard budget stays well within the clock
+        time.clock(300, 0, 0);
+        assertEquals(10, time.soft / 1000000);
+        assertEquals(40, time.hard / 1000000);
+
+        // a best move stable for a few iterations stops the search before the soft budget
+        time.clock(60000, 0, 0);
+        time.start();
+        time.start -= time.soft * 6 / 10;
+        for(int i = 0; i < TimeManager.STABLE_ITERATIONS; i++){
+            assertFalse(time.iterationFinished(1, 0));
+        }
+        assertTrue(time.iterationFinished(1, 0));
+
+        // a dropping score extends it
+        time.start();
+        assertFalse(time.iterationFinished(1, 0));
+        time.start -= time.soft * 3 / 2;
+        assertFalse(time.iterationFinished(2, -100));
+        assertTrue(time.iterationFinished(2, -100));
+
+        NormalGameRule rule = NormalGameRule.fromPosition("6k1/5ppp/8/8/8/8/8/R5K1 w");
+        Engine engine = new Engine(1);
+        assertEquals("a1a8", Move.toString(engine.think(rule, 1000, 0, 0), 8));
+        assertTrue(engine.time.tail().startsWith("1 moves"));
+    }
+
+    /**
+     * Test pondering on the expected reply with no time limit until a ponder hit.
+     * @see Engine#ponderHit(long)
+     */
+    @Test
+    public void EnginePondering() throws InterruptedException{
+        NormalGameRule rule = new NormalGameRule(8, 8);
+        Engine engine = new Engine(4);
+        int move = engine.think(rule, 4, 0);
+        assertNotEquals(Move.NONE, engine.ponderMove);
+
+        // ponder on the expected reply with no time limit, until it is played
+        NormalGameRule position = rule.copy();
+        position.board.makeMove(move);
+        MoveList replies = position.generateMoves(position.board.getTurn());
+        boolean legal = false;
+        for(int i = 0; i < replies.size(); i++){
+            legal |= replies.get(i) == engine.ponderMove;
+        }
+        assertTrue(legal);
+        position.board.makeMove(engine.ponderMove);
+
+        int[] result = {Move.NONE};
+        Thread pondering = new Thread(() -> result[0] = engine.think(position, Engine.MAX_PLY - 1, 0));
+        pondering.start();
+        Thread.sleep(200);
+        assertTrue(pondering.isAlive());
+        while(pondering.isAlive()){
+            engine.ponderHit(100);
+            pondering.join(10000);
+        }
+        assertNotEquals(Move.NONE, result[0]);
+    }
+
+    /**
+     * Test analysing checkmate and stalemate, and that only the latest request is delivered.
+     * @see AnalysisService
+     */
+    @Test
+    public void BackgroundAnalysis() throws Exception{
+        AnalysisService.Analysis mate = AnalysisService.analyze("rnb1kbnr/pppp1ppp/8/4p3/6Pq/5P2/PPPPP2P/RNBQKBNR w", () -> false);
+        assertTrue(mate.check);
+        assertEquals(GameStatus.EndGameReason.CHECKMATE, mate.status);
+        AnalysisService.Analysis stalemate = AnalysisService.analyze("7k/5Q2/6K1/8/8/8/8/8 b", () -> false);
+        assertFalse(stalemate.check);
+        assertEquals(GameStatus.EndGameReason.STALEMATE, stalemate.status);
+        assertEquals(20, AnalysisService.analyze(new NormalGameRule(8, 8).toPosition(), () -> false).legal.length);
+        assertNull(AnalysisService.analyze(new NormalGameRule(8, 8).toPosition(), () -> true));
+
+        // requests from the event dispatch thread, only the latest is delivered
+        NormalGameRule first = new NormalGameRule(8, 8), second = NormalGameRule.fromPosition("7k/5Q2/6K1/8/8/8/8/8 b");
+        AnalysisService service = new AnalysisService();
+        List<AnalysisService.Analysis> delivered = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        SwingUtilities.invokeAndWait(() -> {
+            service.request(first, delivered::add);
+            service.request(second, result -> {
+                delivered.add(result);
+                done.countDown();
+            });
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        SwingUtilities.invokeAndWait(() -> {});
+        assertEquals(1, delivered.size());
+        assertTrue(delivered.get(0).isOf(second.board));
+        assertEquals(GameStatus.EndGameReason.STALEMATE, delivered.get(0).status);
+    }
+
+    /**
+     * Test the engine searching with helper threads, and reusing them for the next search.
+     * @see Engine
+     */
+    @Test
+    public void LazySmpSearch(){
+        NormalGameRule rule = NormalGameRule.fromPosition("6k1/5ppp/8/8/8/8/8/R5K1 w");
+        Engine engine = new Engine(4, 3);
+        long[] nodes = new long[1];
+        engine.listener = report -> nodes[0] = report.nodes;
+
+        assertEquals("a1a8", Move.toString(engine.think(rule, 4, 0), 8));
+        assertEquals("6k1/5ppp/8/8/8/8/8/R5K1 w", rule.toPosition());
+        assertTrue(nodes[0] > 0);
+
+        // helpers are stopped and reused for the next search
+        rule = NormalGameRule.fromPosition("k9/10/10/3q6/10/3p6/10/10/3C6/K9 w");
+        assertEquals("d2d7", Move.toString(engine.think(rule, 3, 0), 10));
+        assertEquals("d2d7", Move.toString(engine.think(rule, 3, 0), 10));
+    }
+
+    /**
+     * Test capture generation, and a quiescence search seeing a defended Pawn.
+     * @see NormalGameRule#generateCaptures(Side, MoveList)
+     */
+    @Test
+    public void QuiescenceSearch(){
+        // the Cannon captures the Pawn directly or hops over it to the Queen
+        NormalGameRule rule = NormalGameRule.fromPosition("k9/10/10/3q6/10/3p6/10/10/3C6/K9 w");
+        MoveList captures = new MoveList();
+        assertEquals(2, rule.generateCaptures(Side.WHITE, captures));
+        assertEquals(Move.parse("d2d5", 10) + Move.parse("d2d7", 10), captures.get(0) + captures.get(1));
+
+        // the Pawn is defended, which a one ply search only sees through quiescence
+        rule = NormalGameRule.fromPosition("k7/8/2p5/3p4/8/8/8/K2Q4 w");
+        Engine engine = new Engine(1);
+        long[] qnodes = new long[1];
+        engine.listener = report -> qnodes[0] = report.qnodes;
+        assertNotEquals("d1d5", Move.toString(engine.think(rule, 1, 0), 8));
+        assertTrue(qnodes[0] > 0);
+    }
+
+    /**
+     * Test the incrementally updated piece-square scores against scoring the board from scratch.
+     * @see PieceSquareTables
+     */
+    @Test
+    public void IncrementalEvaluation(){
+        for(int dimension : new int[]{8, 15}){
+            NormalGameRule rule = new NormalGameRule(dimension, dimension);
+            rule.setCustomPieces(true);
+            rule.board.resetPosition();
+            SquareBoard board = rule.board;
+
+            // both armies mirror each other at the start, on larger boards White starts nearer the center
+            if(dimension == 8){
+                assertEquals(0, board.evaluate(Side.WHITE));
+                assertTrue(moveSequence(rule, new String[]{"pe4", "pa6"}));
+                assertTrue(board.evaluate(Side.WHITE) > 0);
+            }
+
+            SplittableRandom random = new SplittableRandom(dimension);
+            for(int i = 0; i < 30; i++){
+                MoveList moves = rule.generateMoves(board.getTurn());
+                if(moves.isEmpty()) break;
+                rule.playMove(moves.get(random.nextInt(moves.size())));
+                for(Side side : Side.values()){
+                    assertEquals(board.tables.scoreOf(board, side), board.scores[side.toInt()]);
+                }
+            }
+            board.undo(10);
+            assertEquals(board.tables.scoreOf(board, Side.WHITE) - board.tables.scoreOf(board, Side.BLACK), board.evaluate(Side.WHITE));
+        }
+    }
+
+    /**
+     * Test static exchange evaluation with x-rays, Cannons and King recaptures.
+     * @see StaticExchange
+     */
+    @Test
+    public void StaticExchangeEvaluation(){
+        // Rook takes a Pawn defended by a Pawn
+        assertEquals(-400, exchange("k7/8/2p5/3p4/8/8/8/K2R4 w", "d1d5"));
+        // the second Rook x-rays through the first
+        assertEquals(100, exchange("k2r4/8/8/3p4/8/8/3R4/K2R4 w", "d2d5"));
+        // a Cannon recaptures by hopping over a Pawn
+        assertEquals(-400, exchange("k2c4/8/3P4/3p4/8/8/8/K2R4 w", "d1d5"));
+        // a Cannon recaptures directly once its screen has moved away
+        assertEquals(100, exchange("k2r4/8/8/3p4/8/8/3R4/K2C4 w", "d2d5"));
+        // a quiet move onto a square attacked by a Pawn
+        assertEquals(-320, exchange("k7/8/2p5/8/8/4N3/8/K7 w", "e3d5"));
+        // the King only recaptures if nothing takes it back
+        assertEquals(400, exchange("k7/8/8/8/8/8/2p5/KR6 b", "c2b1"));
+        assertEquals(500, exchange("kr6/8/8/8/8/8/2p5/KR6 b", "c2b1"));
+    }
+
+    /**
+     * Test the incrementally updated network against refreshing it and against the piece-square tables.
+     * @see NeuralAccumulator
+     */
+    @Test
+    public void NeuralEvaluation() throws IOException{
+        for(int dimension : new int[]{8, 15}){
+            NormalGameRule rule = new NormalGameRule(dimension, dimension);
+            rule.setCustomPieces(true);
+            rule.board.resetPosition();
+            SquareBoard board = rule.board;
+            NeuralNetwork network = NeuralNetwork.bootstrap(dimension);
+            board.useNetwork(network);
+
+            SplittableRandom random = new SplittableRandom(dimension);
+            for(int i = 0; i < 40; i++){
+                MoveList moves = rule.generateMoves(board.getTurn());
+                if(moves.isEmpty()) break;
+                board.makeMove(moves.get(random.nextInt(moves.size())));
+
+                // the bootstrap network reproduces the piece-square tables, each piece rounded to half a step
+                Side side = board.getTurn();
+                int incremental = board.accumulator.evaluate(side);
+                assertEquals(board.evaluate(side), incremental, 16 * board.pieces.size());
+
+                NeuralAccumulator fresh = new NeuralAccumulator(network, board);
+                fresh.refresh();
+                assertEquals(fresh.evaluate(side), incremental);
+            }
+            while(board.undoStack.size > 0) board.unmakeMove();
+            NeuralAccumulator fresh = new NeuralAccumulator(network, board);
+            fresh.refresh();
+            for(Side side : Side.values()){
+                assertArrayEquals(fresh.values[side.toInt()], board.accumulator.values[side.toInt()]);
+            }
+        }
+
+        NeuralNetwork network = NeuralNetwork.bootstrap(8);
+        File file = File.createTempFile("network", ".nnue");
+        try {
+            network.save(file);
+            NeuralNetwork loaded = NeuralNetwork.load(file);
+            assertEquals(network.dimension, loaded.dimension);
+            assertArrayEquals(network.inputWeights, loaded.inputWeights);
+            assertArrayEquals(network.inputBias, loaded.inputBias);
+            assertArrayEquals(network.outputWeights, loaded.outputWeights);
+            assertEquals(network.outputBias, loaded.outputBias);
+        }finally{
+            file.delete();
+        }
+    }
+
+    /**
+     * Test building, writing, mapping and looking up an opening book.
+     * @see OpeningBook
+     */
+    @Test
+    public void OpeningBookLookup() throws IOException{
+        NormalGameRule rule = new NormalGameRule(8, 8);
+        OpeningBook.Builder builder = new OpeningBook.Builder(rule, 4);
+        assertTrue(builder.add("1. e2e4 e7e5 2. g1f3 b8c6 3. f1b5 1-0"));
+        assertTrue(builder.add("1. e2e4 c7c5 0-1"));
+        assertTrue(builder.add("# a comment"));
+        assertTrue(builder.add("1. d2d4 d7d5 1/2-1/2"));
+        assertTrue(builder.add("1. g1f3 d7d5 2. e2e4 *"));
+        assertFalse(builder.add("1. e2e4 e7e4 1-0"));
+        assertEquals(5, builder.games);
+        assertEquals(1, builder.rejected);
+
+        File file = File.createTempFile("book", ".bin");
+        try {
+            builder.write(file);
+            OpeningBook book = OpeningBook.open(file);
+            assertEquals(8, book.dimension);
+            assertEquals(builder.entries(), book.size);
+
+            List<OpeningBook.Entry> entries = book.lookup(rule.board.hash());
+            assertEquals(3, entries.size());
+            // the game with an illegal move still counts up to it
+            assertEquals("e2e4 3 games +2 =0 -1", entries.get(0).toString(8));
+
+            rule.playMove(Move.parse("e2e4", 8));
+            entries = book.lookup(rule.board.hash());
+            assertEquals(2, entries.size());
+            for(OpeningBook.Entry entry : entries){
+                // results are counted for the side playing the move
+                String expected = entry.move == Move.parse("e7e5", 8) ? "e7e5 1 games +0 =0 -1" : "c7c5 1 games +1 =0 -0";
+                assertEquals(expected, entry.toString(8));
+            }
+            int move = book.choose(rule);
+            assertTrue(move == Move.parse("e7e5", 8) || move == Move.parse("c7c5", 8));
+
+            // the fourth move is the last one in the book
+            assertTrue(moveSequence(rule, new String[]{"pe5", "nf3"}));
+            assertEquals(Move.parse("b8c6", 8), book.choose(rule));
+            assertTrue(moveSequence(rule, new String[]{"nc6"}));
+            assertEquals(-1, book.find(rule.board.hash()));
+            assertEquals(Move.NONE, book.choose(rule));
+        }finally{
+            file.delete();
+        }
+    }
+
+    /**
+     * Test generating, probing, writing and mapping a 5x5 KQvK tablebase, and the engine mating with it.
+     * @see Tablebase
+     */
+    @Test
+    public void TablebaseGeneration() throws IOException{
+        Tablebase.Generator generator = new Tablebase.Generator(5, new ForkJoinPool(2));
+        Tablebase tablebase = generator.generate("kqvk");
+        assertEquals("KQvK", tablebase.material);
+        // capturing the Queen leaves a dead draw
+        Tablebase kings = generator.tables.get("KvK");
+        for(int index = 0; index < kings.size; index++){
+            assertNotEquals(Tablebase.WIN, Tablebase.outcome(kings.get(index)));
+        }
+
+        NormalGameRule mated = NormalGameRule.fromPosition("k4/1Q3/1K3/5/5 b");
+        assertEquals(Tablebase.LOSS, Tablebase.outcome(tablebase.probe(mated.board)));
+        assertEquals(0, Tablebase.distance(tablebase.probe(mated.board)));
+        NormalGameRule mateInOne = NormalGameRule.fromPosition("k4/2Q2/1K3/5/5 w");
+        assertEquals(Tablebase.WIN, Tablebase.outcome(tablebase.probe(mateInOne.board)));
+        assertEquals(1, Tablebase.distance(tablebase.probe(mateInOne.board)));
+        // the side not to move is in check
+        NormalGameRule impossible = NormalGameRule.fromPosition("k4/1Q3/1K3/5/5 w");
+        assertEquals(Tablebase.INVALID, Tablebase.outcome(tablebase.probe(impossible.board)));
+
+        File file = File.createTempFile("tablebase", ".fctb");
+        try {
+            tablebase.write(file);
+            Tablebase mapped = Tablebase.open(file);
+            assertEquals(tablebase.longest, mapped.longest);
+            for(int index = 0; index < tablebase.size; index++){
+                assertEquals(tablebase.get(index), mapped.get(index));
+            }
+
+            Engine engine = new Engine(1);
+            engine.tablebases.put(mapped.material, mapped);
+            mateInOne.board.makeMove(engine.think(mateInOne, 2, 0));
+            assertTrue(mateInOne.generateMoves(Side.BLACK).isEmpty() && mateInOne.isInCheck(Side.BLACK));
+        }finally{
+            file.delete();
+        }
+    }
+
+    private int exchange(String position, String move){
+        NormalGameRule rule = NormalGameRule.fromPosition(position);
+        return rule.exchange.evaluate(Move.parse(move, rule.width));
+    }
+
+    /**
+     * Test the order of moves by hash move, MVV-LVA captures and killers.
+     * @see MoveOrdering
+     */
+    @Test
+    public void MoveOrderingPicks(){
+        // the Pawn and Knight can both take the Queen, the Knight and Rook can both take a Pawn
+        NormalGameRule rule = NormalGameRule.fromPosition("k7/8/8/3q4/2P1p3/2N5/8/K3R3 w");
+        SquareBoard board = rule.board;
+        MoveOrdering ordering = new MoveOrdering(4);
+        ordering.reset(board);
+
+        MoveList moves = rule.generateMoves(Side.WHITE);
+        int hashMove = Move.parse("a1b1", 8), killer = Move.parse("e1h1", 8);
+        ordering.cutoff(0, killer, 4);
+        assertEquals(killer, ordering.killers[0][0]);
+        ordering.cutoff(0, Move.parse("e1e4", 8), 4);
+        assertEquals(killer, ordering.killers[0][0]);   // captures are no killers
+
+        ordering.score(0, moves, hashMove);
+        assertEquals("a1b1", Move.toString(ordering.next(0, moves, 0), 8));
+        assertEquals("c4d5", Move.toString(ordering.next(0, moves, 1), 8));
+        assertEquals("c3d5", Move.toString(ordering.next(0, moves, 2), 8));
+        assertEquals("c3e4", Move.toString(ordering.next(0, moves, 3), 8));
+        assertEquals("e1e4", Move.toString(ordering.next(0, moves, 4), 8));
+        assertEquals("e1h1", Move.toString(ordering.next(0, moves, 5), 8));
+    }
+
+    /**
+     * Test storing, replacing and concurrently probing a transposition table.
+     * @see TranspositionTable
+     */
+    @Test
+    public void TranspositionTableEntries() throws InterruptedException{
+        TranspositionTable table = new TranspositionTable(1);
+        assertEquals(1024 * 1024 / 16, table.capacity());
+
+        long key = new NormalGameRule(8, 8).board.hash();
+        int move = Move.encode(52, 36);
+        assertEquals(0, table.probe(key));
+        table.store(key, move, -123, 5, TranspositionTable.LOWER);
+
+        long data = table.probe(key);
+        assertEquals(move, TranspositionTable.move(data));
+        assertEquals(-123, TranspositionTable.score(data));
+        assertEquals(5, TranspositionTable.depth(data));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(data));
+
+        // a shallower result of the same search does not replace a deeper one
+        table.store(key, Move.NONE, 40, 2, TranspositionTable.UPPER);
+        assertEquals(5, TranspositionTable.depth(table.probe(key)));
+        table.newSearch();
+        table.store(key, Move.NONE, 40, 2, TranspositionTable.UPPER);
+        assertEquals(move, TranspositionTable.move(table.probe(key)));     // the move is kept
+        assertEquals(2, TranspositionTable.depth(table.probe(key)));
+
+        // threads writing into the same buckets never read an entry of another key
+        Thread[] threads = new Thread[4];
+        boolean[] failed = new boolean[threads.length];
+        for(int t = 0; t < threads.length; t++){
+            int index = t;
+            threads[t] = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(index);
+                for(int i = 0; i < 200000; i++){
+                    long k = random.nextLong() & ~0xFFFFL | 7;  // all keys share one bucket
+                    int score = (int) (k >>> 48) & 0x7FFF;
+                    table.store(k, Move.NONE, score, i & 63, TranspositionTable.EXACT);
+                    long found = table.probe(k);
+                    if(found != 0 && TranspositionTable.score(found) != score){
+                        failed[index] = true;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads){
+            thread.join();
+        }
+        for(boolean f : failed){
+            assertFalse(f);
+        }
+        assertTrue(table.collisions.sum() > 0);
+    }
+
+    /**
+     * Make sure generated moves of the side to move are exactly those which survive a try move.
+     * @param rule    NormalGameRule object
+     */
+    private void compareWithTryMoves(NormalGameRule rule){
+        SquareBoard board = rule.board;
+        MoveList moves = rule.generateMoves(board.getTurn());
+        int expected = 0;
+        for(int i = 0; i < board.pieces.size(); i++){
+            ChessPiece piece = board.pieces.get(i);
+            if(piece.side != board.getTurn())   continue;
+            for(int id = 0; id <= board.maxId; id++){
+                if(board.isMoveSafe(piece, board.getLoc(id))){
+                    expected++;
+                    boolean found = false;
+                    for(int j = 0; j < moves.size(); j++){
+                        found |= moves.get(j) == Move.encode(piece.location, id);
+                    }
+                    assertTrue(found);
+                }
+            }
+        }
+        assertEquals(expected, moves.size());
+    }
+
+    /**
+     * Make sure the bitboard of a board agrees with the move validator of NormalGameRule for every piece and location.
+     * @param rule    NormalGameRule object with a bitboard
+     */
+    private void compareWithValidator(NormalGameRule rule){
+        SquareBoard board = rule.board;
+        BitBoard bitboard = board.bitboard;
+
+        for(ChessPiece piece : board.pieces){
+            for(int id = 0; id <= board.maxId; id++){
+                if(id == piece.location)    continue;
+
+                board.bitboard = null;
+                boolean expected = rule.isMoveLegal(piece, board.getLoc(id));
+                board.bitboard = bitboard;
+                assertEquals(expected, rule.isMoveLegal(piece, board.getLoc(id)));
+            }
+        }
+        for(Side side : Side.values()){
+            board.bitboard = null;
+            boolean expected = rule.KingBeingCheckChecker(side).isCheck;
+            board.bitboard = bitboard;
+            assertEquals(expected, rule.KingBeingCheckChecker(side).isCheck);
+        }
+    }
 }
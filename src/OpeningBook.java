@@ -0,0 +1,347 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Opening book built from game collections, read through a memory-mapped file.
+ *
+ * A book file is a table of entries sorted by position hash, as returned by
+ * SquareBoard.hash, so the moves of a position are found by binary search over the
+ * mapped file without loading it into the heap. Each entry records a move played
+ * from the position, how many games played it, and how many of those the side
+ * playing it won, drew and lost. Unfinished games count as none of these.
+ *
+ * Book files are big-endian: the magic "FCOB", the version, the board dimension and
+ * the entry count as ints, then every entry as the position hash (long), the move,
+ * the count, the wins, the draws and the losses (ints). Entries of a position are
+ * sorted by count, most played first.
+ *
+ * Games are read one per line as moves in coordinate notation (see Move.parse),
+ * optionally numbered ("1." tokens are skipped), and ending with the result
+ * "1-0", "0-1", "1/2-1/2" or "*". Lines starting with '#' are comments.
+ */
+public class OpeningBook {
+    static final int MAGIC = 0x46434F42;    /**< "FCOB" */
+    static final int VERSION = 1;
+    private static final int HEADER = 16;   /**< Bytes before the first entry */
+    private static final int ENTRY = 28;    /**< Bytes per entry */
+
+    int dimension;
+    int size;               /**< Number of entries */
+    ByteBuffer entries;     /**< Read-only mapping of the whole file */
+    private final Random random = new Random();
+
+    private OpeningBook(ByteBuffer entries) throws IOException{
+        if(entries.capacity() < HEADER || entries.getInt(0) != MAGIC || entries.getInt(4) != VERSION){
+            throw new IOException("Not a book file");
+        }
+        this.entries = entries;
+        this.dimension = entries.getInt(8);
+        this.size = entries.getInt(12);
+        if(entries.capacity() < HEADER + (long) size * ENTRY)   throw new IOException("Truncated book file");
+    }
+
+    /**
+     * Map a book file. The mapping stays valid once the file is closed.
+     * @param file    Book file
+     * @return  The book
+     * @throws IOException    If the file cannot be read or is not a book file
+     */
+    static OpeningBook open(File file) throws IOException{
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private long keyAt(int index){
+        return entries.getLong(HEADER + index * ENTRY);
+    }
+
+    /**
+     * Find the first entry of a position by binary search.
+     * @param key    Position hash
+     * @return  Index of the entry, -1 if the position is not in the book
+     */
+    int find(long key){
+        int low = 0, high = size;
+        while(low < high){
+            int middle = (low + high) >>> 1;
+            if(keyAt(middle) < key) low = middle + 1;
+            else                    high = middle;
+        }
+        return low < size && keyAt(low) == key ? low : -1;
+    }
+
+    /**
+     * Get the book moves of a position.
+     * @param key    Position hash
+     * @return  Entries of the position, most played first, empty if it is not in the book
+     */
+    List<Entry> lookup(long key){
+        List<Entry> result = new ArrayList<>();
+        int index = find(key);
+        if(index == -1) return result;
+        for(; index < size && keyAt(index) == key; index++){
+            int offset = HEADER + index * ENTRY + 8;
+            result.add(new Entry(entries.getInt(offset), entries.getInt(offset + 4), entries.getInt(offset + 8),
+                    entries.getInt(offset + 12), entries.getInt(offset + 16)));
+        }
+        return result;
+    }
+
+    /**
+     * Pick a book move for the side to move, at random weighted by how often it was played.
+     * Moves which are not legal, from a hash collision, are never picked.
+     * @param rule    Game in the position
+     * @return  A legal move, Move.NONE if the position is not in the book
+     */
+    int choose(NormalGameRule rule){
+        if(rule.board.dimension != dimension)   return Move.NONE;
+
+        List<Entry> candidates = lookup(rule.board.hash());
+        if(candidates.isEmpty())    return Move.NONE;
+        MoveList legal = rule.generateMoves(rule.board.getTurn());
+        candidates.removeIf(entry -> !contains(legal, entry.move));
+
+        int total = 0;
+        for(Entry entry : candidates)   total += entry.count;
+        if(total == 0)  return Move.NONE;
+        int pick = random.nextInt(total);
+        for(Entry entry : candidates){
+            pick -= entry.count;
+            if(pick < 0)    return entry.move;
+        }
+        return Move.NONE;
+    }
+
+    private static boolean contains(MoveList moves, int move){
+        for(int i = 0; i < moves.size(); i++){
+            if(moves.get(i) == move)    return true;
+        }
+        return false;
+    }
+
+    /**
+     * A move of a book position and how it did.
+     */
+    static class Entry{
+        int move;
+        int count;  /**< Games playing the move */
+        int wins;   /**< Games won by the side playing the move */
+        int draws;
+        int losses;
+
+        Entry(int move, int count, int wins, int draws, int losses){
+            this.move = move;
+            this.count = count;
+            this.wins = wins;
+            this.draws = draws;
+            this.losses = losses;
+        }
+
+        /**
+         * Describe the entry.
+         * @param dimension    Dimension of the board
+         * @return  Such as "e2e4 120 games +50 =40 -30"
+         */
+        String toString(int dimension){
+            return Move.toString(move, dimension) + " " + count + " games +" + wins + " =" + draws + " -" + losses;
+        }
+    }
+
+    /**
+     * Aggregates the first moves of games into book entries, keeping only counts in memory.
+     */
+    static class Builder{
+        NormalGameRule rule;
+        int plies;          /**< Moves of every game added to the book */
+        int games;          /**< Games added */
+        int rejected;       /**< Games stopped early by an illegal or unreadable move */
+        Map<Long, Map<Integer, int[]>> positions = new HashMap<>();  /**< Count, wins, draws and losses by hash and move */
+
+        /**
+         * @param rule     Game in the starting position of every game, reused for all of them
+         * @param plies    Moves of every game added to the book
+         */
+        Builder(NormalGameRule rule, int plies){
+            this.rule = rule;
+            this.plies = plies;
+        }
+
+        /**
+         * Add every game of a collection.
+         * @param reader    Games, one per line
+         * @throws IOException    If the games cannot be read
+         */
+        void addGames(BufferedReader reader) throws IOException{
+            String line;
+            while((line = reader.readLine()) != null){
+                add(line);
+            }
+        }
+
+        /**
+         * Add the first moves of a game, up to its first illegal move.
+         * @param line    Moves and result of the game
+         * @return  False if the game had an illegal move
+         */
+        boolean add(String line){
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#"))  return true;
+
+            String[] tokens = line.split("\\s+");
+            int result = resultOf(tokens[tokens.length - 1]);
+            SquareBoard board = rule.board;
+            int start = board.undoStack.size;
+            boolean legal = true;
+
+            for(String token : tokens){
+                if(board.undoStack.size - start >= plies || token.endsWith(".") || resultOf(token) != NO_RESULT){
+                    continue;
+                }
+                int move;
+                try {
+                    move = Move.parse(token, board.dimension);
+                }catch(IllegalArgumentException e){
+                    legal = false;
+                    break;
+                }
+                if(!contains(rule.generateMoves(board.getTurn()), move)){
+                    legal = false;
+                    break;
+                }
+
+                Map<Integer, int[]> moves = positions.computeIfAbsent(board.hash(), key -> new HashMap<>());
+                int[] stats = moves.computeIfAbsent(move, key -> new int[4]);
+                stats[0]++;
+                if(result == DRAW)  stats[2]++;
+                else if(result == board.getTurn().toInt())  stats[1]++;
+                else if(result != NO_RESULT && result != UNFINISHED)    stats[3]++;
+                board.makeMove(move);
+            }
+
+            while(board.undoStack.size > start) board.unmakeMove();
+            games++;
+            if(!legal)  rejected++;
+            return legal;
+        }
+
+        private static final int NO_RESULT = -1, DRAW = 2, UNFINISHED = 3;
+
+        /**
+         * Read a result token.
+         * @return  Index of the winning Side, DRAW, UNFINISHED, or NO_RESULT if the token is not a result
+         */
+        private static int resultOf(String token){
+            switch (token){
+                case "1-0":     return Side.WHITE.toInt();
+                case "0-1":     return Side.BLACK.toInt();
+                case "1/2-1/2": return DRAW;
+                case "*":       return UNFINISHED;
+            }
+            return NO_RESULT;
+        }
+
+        /**
+         * Number of entries the book will have.
+         * @return  Distinct moves over all positions
+         */
+        int entries(){
+            int count = 0;
+            for(Map<Integer, int[]> moves : positions.values()) count += moves.size();
+            return count;
+        }
+
+        /**
+         * Write the book file.
+         * @param file    Book file
+         * @throws IOException    If the file cannot be written
+         */
+        void write(File file) throws IOException{
+            List<Long> keys = new ArrayList<>(positions.keySet());
+            Collections.sort(keys);
+
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(rule.board.dimension);
+                out.writeInt(entries());
+                for(long key : keys){
+                    List<Map.Entry<Integer, int[]>> moves = new ArrayList<>(positions.get(key).entrySet());
+                    moves.sort((a, b) -> b.getValue()[0] - a.getValue()[0]);
+                    for(Map.Entry<Integer, int[]> move : moves){
+                        out.writeLong(key);
+                        out.writeInt(move.getKey());
+                        for(int stat : move.getValue()) out.writeInt(stat);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Build a book from a game collection, or list the book moves of a position.
+     *
+     * Usage: java OpeningBook [--dim N] [--custom] [--plies N] games.txt book.bin
+     *        java OpeningBook --show book.bin [--custom] [moves...]
+     *
+     * Building prints the games read, the positions and the entries written. Showing
+     * plays the moves from the starting position and prints the book moves there.
+     */
+    public static void main(String[] args) throws IOException{
+        int dimension = 8, plies = 20;
+        boolean custom = false, show = false;
+        List<String> files = new ArrayList<>();
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]){
+                case "--dim":       dimension = Integer.parseInt(args[++i]); break;
+                case "--custom":    custom = true; break;
+                case "--plies":     plies = Integer.parseInt(args[++i]); break;
+                case "--show":      show = true; break;
+                default:            files.add(args[i]);
+            }
+        }
+        if(files.size() < (show ? 1 : 2)){
+            System.err.println("Usage: java OpeningBook [--dim N] [--custom] [--plies N] games.txt book.bin");
+            System.err.println("       java OpeningBook --show book.bin [--custom] [moves...]");
+            System.exit(1);
+        }
+
+        OpeningBook book = show ? open(new File(files.get(0))) : null;
+        if(book != null)    dimension = book.dimension;
+
+        // setting up the board prints every piece created
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream(){
+            @Override
+            public void write(int b){}
+        }));
+        NormalGameRule rule = new NormalGameRule(dimension, dimension);
+        if(custom){
+            rule.setCustomPieces(true);
+            rule.board.resetPosition();
+        }
+        System.setOut(out);
+
+        if(book != null){
+            for(String move : files.subList(1, files.size())){
+                rule.board.makeMove(Move.parse(move, dimension));
+            }
+            List<Entry> entries = book.lookup(rule.board.hash());
+            if(entries.isEmpty())   out.println("Not in book");
+            for(Entry entry : entries)  out.println(entry.toString(dimension));
+            return;
+        }
+
+        Builder builder = new Builder(rule, plies);
+        long start = System.currentTimeMillis();
+        try(BufferedReader reader = new BufferedReader(new FileReader(files.get(0)))){
+            builder.addGames(reader);
+        }
+        builder.write(new File(files.get(1)));
+        out.println(builder.games + " games (" + builder.rejected + " with illegal moves), " + builder.positions.size()
+                + " positions, " + builder.entries() + " entries in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
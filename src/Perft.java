@@ -0,0 +1,298 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the leaf nodes of the move tree to a fixed depth, to check the move
+ * generator against known counts and to measure its speed.
+ *
+ * Usage: java Perft [--divide] [--dim N] [--custom] [--position "..."]
+ *                   [--threads N] [--split N] [--hash MB] [--speedup] depth
+ *
+ * Without a position the tree starts from NormalGameRule.initBoard on an N x N
+ * board, 8 by default, with Cannons and Turners if --custom is given. Positions
+ * use the format of NormalGameRule.toPosition. With --divide the count below
+ * every root move is printed as well, one "move: nodes" line each.
+ *
+ * With more than one thread the tree is split into ForkJoinPool tasks at the root,
+ * and at the next --split - 1 plies below it. Every task walks its own copy of the
+ * rule and board. --hash shares a table of subtree counts between all tasks, so a
+ * transposed subtree is only walked once. --speedup runs the count with 1, 2, 4, ...
+ * threads up to the number of CORES and reports the speedup over one thread.
+ */
+public class Perft {
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    NormalGameRule rule;
+    SquareBoard board;
+    MoveList[] buffers;     /**< One move list per ply, reused across the walk */
+    Cache cache;            /**< Subtree counts, null to walk every subtree */
+
+    Perft(NormalGameRule rule){
+        this(rule, null);
+    }
+
+    Perft(NormalGameRule rule, Cache cache){
+        this.rule = rule;
+        this.board = rule.board;
+        this.buffers = new MoveList[0];
+        this.cache = cache;
+    }
+
+    /**
+     * Count the leaf nodes below the current position.
+     * @param depth    Plies to walk, 0 counts the position itself
+     * @return  Number of leaf nodes
+     */
+    long count(int depth){
+        if(depth == 0)  return 1;
+        if(buffers.length < depth){
+            buffers = new MoveList[depth];
+            for(int i = 0; i < depth; i++){
+                buffers[i] = new MoveList();
+            }
+        }
+        return walk(depth);
+    }
+
+    private long walk(int depth){
+        long key = 0, nodes;
+        if(cache != null && depth > 1){
+            key = board.hash();
+            nodes = cache.probe(key, depth);
+            if(nodes != 0)  return nodes;
+        }
+
+        MoveList moves = buffers[depth - 1];
+        moves.clear();
+        rule.generateMoves(board.getTurn(), moves);
+        // leaves need no make and unmake of their own
+        if(depth == 1)  return moves.size();
+
+        nodes = 0;
+        for(int i = 0; i < moves.size(); i++){
+            board.makeMove(moves.get(i));
+            nodes += walk(depth - 1);
+            board.unmakeMove();
+        }
+
+        if(cache != null)   cache.store(key, depth, nodes);
+        return nodes;
+    }
+
+    /**
+     * Count the leaf nodes below the current position with a pool of threads.
+     * @param depth    Plies to walk
+     * @param split    Plies split into tasks, at least 1
+     * @param pool     Pool running the tasks
+     * @param out      Stream receiving one "move: nodes" line per root move, null for none
+     * @return  Number of leaf nodes
+     */
+    long count(int depth, int split, ForkJoinPool pool, PrintStream out){
+        if(depth == 0)  return 1;
+
+        Task root = new Task(rule.toPosition(), Move.NONE, depth, split, cache);
+        long nodes = pool.invoke(root);
+        if(out != null){
+            for(Task child : root.children){
+                out.println(Move.toString(child.move, rule.width) + ": " + child.getRawResult());
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Subtree walked by a ForkJoinPool thread on its own copy of the position.
+     */
+    private static class Task extends RecursiveTask<Long>{
+        private static final long serialVersionUID = 1L;
+
+        String position;    /**< Position before the move */
+        int move;           /**< Move leading to the subtree, Move.NONE for the root */
+        int depth;          /**< Plies to walk after the move */
+        int split;          /**< Plies left to split into further tasks */
+        Cache cache;
+        Task[] children;    /**< Subtasks by move, null if walked in place */
+
+        Task(String position, int move, int depth, int split, Cache cache){
+            this.position = position;
+            this.move = move;
+            this.depth = depth;
+            this.split = split;
+            this.cache = cache;
+        }
+
+        @Override
+        protected Long compute(){
+            NormalGameRule rule = NormalGameRule.fromPosition(position);
+            if(move != Move.NONE){
+                rule.board.makeMove(move);
+            }
+            if(split <= 0 || depth == 0){
+                return new Perft(rule, cache).count(depth);
+            }
+
+            MoveList moves = rule.generateMoves(rule.board.getTurn());
+            String next = rule.toPosition();
+            children = new Task[moves.size()];
+            for(int i = 0; i < moves.size(); i++){
+                children[i] = new Task(next, moves.get(i), depth - 1, split - 1, cache);
+            }
+            invokeAll(children);
+
+            long nodes = 0;
+            for(Task child : children){
+                nodes += child.getRawResult();
+            }
+            return nodes;
+        }
+    }
+
+    /**
+     * Fixed-size table of subtree counts, shared by any number of threads without locks.
+     * Entries are written as the key XOR the data, then the data, like TranspositionTable,
+     * so a torn entry reads as a miss. Data holds the count above the depth byte.
+     */
+    static class Cache {
+        long[] table;
+        int mask;   /**< Number of entries - 1, a power of two */
+
+        /**
+         * Allocate a table.
+         * @param megabytes    Size of the table, rounded down to a power of two of entries
+         */
+        Cache(int megabytes){
+            if(megabytes <= 0)  throw new IllegalArgumentException("Invalid size");
+
+            long entries = Long.highestOneBit((long) megabytes * 1024 * 1024 / 16);
+            entries = Math.min(entries, 1L << 29);
+            table = new long[(int) entries * 2];
+            mask = (int) entries - 1;
+        }
+
+        /**
+         * Look up the count of a subtree.
+         * @param key      Position key
+         * @param depth    Plies below the position
+         * @return  Number of leaf nodes, 0 if not stored
+         */
+        long probe(long key, int depth){
+            int index = ((int) key & mask) * 2;
+            long data = table[index + 1];
+            return (table[index] ^ data) == key && (data & 0xFF) == depth ? data >>> 8 : 0;
+        }
+
+        void store(long key, int depth, long nodes){
+            int index = ((int) key & mask) * 2;
+            long data = nodes << 8 | depth;
+            table[index] = key ^ data;
+            table[index + 1] = data;
+        }
+    }
+
+    /**
+     * Count the leaf nodes below every root move.
+     * @param depth    Plies to walk, at least 1
+     * @param out      Stream receiving one "move: nodes" line per root move
+     * @return  Total number of leaf nodes
+     */
+    long divide(int depth, PrintStream out){
+        MoveList roots = new MoveList();
+        rule.generateMoves(board.getTurn(), roots);
+
+        long total = 0;
+        for(int i = 0; i < roots.size(); i++){
+            board.makeMove(roots.get(i));
+            long nodes = count(depth - 1);
+            board.unmakeMove();
+
+            out.println(Move.toString(roots.get(i), rule.width) + ": " + nodes);
+            total += nodes;
+        }
+        return total;
+    }
+
+    public static void main(String[] args){
+        int depth = -1, dimension = 8, threads = 1, split = 1, hash = 0;
+        boolean divide = false, custom = false, speedup = false;
+        String position = null;
+
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]){
+                case "--divide":    divide = true; break;
+                case "--custom":    custom = true; break;
+                case "--dim":       dimension = Integer.parseInt(args[++i]); break;
+                case "--position":  position = args[++i]; break;
+                case "--threads":   threads = Integer.parseInt(args[++i]); break;
+                case "--split":     split = Integer.parseInt(args[++i]); break;
+                case "--hash":      hash = Integer.parseInt(args[++i]); break;
+                case "--speedup":   speedup = true; break;
+                default:            depth = Integer.parseInt(args[i]);
+            }
+        }
+        if(depth < 0){
+            System.err.println("Usage: java Perft [--divide] [--dim N] [--custom] [--position \"...\"]"
+                    + " [--threads N] [--split N] [--hash MB] [--speedup] depth");
+            System.exit(1);
+        }
+
+        // setting up the board prints every piece created
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream(){
+            @Override
+            public void write(int b){}
+        }));
+        NormalGameRule rule;
+        try {
+            if(position != null){
+                rule = NormalGameRule.fromPosition(position);
+            }else{
+                rule = new NormalGameRule(dimension, dimension);
+                if(custom){
+                    rule.setCustomPieces(true);
+                    rule.board.resetPosition();
+                }
+            }
+        }finally{
+            System.setOut(out);
+        }
+
+        out.println(rule.toPosition());
+
+        if(speedup){
+            long base = 0;
+            for(int n = 1; ; n = Math.min(2 * n, CORES)){
+                long elapsed = run(rule, depth, n, split, hash, null, out);
+                if(n == 1)  base = elapsed;
+                out.printf("  speedup %.2fx%n", (double) base / elapsed);
+                if(n == CORES)  break;
+            }
+        }else{
+            run(rule, depth, threads, split, hash, divide ? out : null, out);
+        }
+    }
+
+    /**
+     * Count and print the nodes, time and speed.
+     * @return  Elapsed time in nanoseconds
+     */
+    private static long run(NormalGameRule rule, int depth, int threads, int split, int hash, PrintStream divideOut, PrintStream out){
+        Perft perft = new Perft(rule, hash > 0 ? new Cache(hash) : null);
+
+        long start = System.nanoTime(), nodes;
+        if(threads > 1){
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            nodes = perft.count(depth, Math.max(1, split), pool, divideOut);
+            pool.shutdown();
+        }else{
+            nodes = divideOut != null && depth > 0 ? perft.divide(depth, divideOut) : perft.count(depth);
+        }
+        long elapsed = Math.max(1, System.nanoTime() - start);
+
+        if(divideOut != null)   out.println();
+        out.println("Depth " + depth + ", " + threads + (threads == 1 ? " thread: " : " threads: ") + nodes
+                + " nodes in " + elapsed / 1000000 + " ms, " + (long) (nodes * 1e9 / elapsed) + " nodes/sec");
+        return elapsed;
+    }
+}
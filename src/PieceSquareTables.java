@@ -0,0 +1,103 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Material plus piece-square values of a board dimension, for a static evaluation
+ * which SquareBoard keeps up to date as pieces are placed and lifted.
+ *
+ * Tables are generated rather than written out, so every dimension gets its own.
+ * Knights, Bishops, Queens, Cannons and Turners prefer the center, Pawns gain
+ * value as they advance from their starting row, and the King prefers to stay on
+ * its back rank. Pieces start on rows 0 to 7 whatever the dimension, so rows are
+ * counted from each side's own back rank rather than mirrored across the board.
+ */
+public class PieceSquareTables {
+    private static final Map<Integer, PieceSquareTables> cache = new HashMap<>();
+
+    int[][][] values;   /**< Material and positional value by side, PieceType index and location id */
+
+    /**
+     * Get the tables of a dimension, generating them on first use.
+     * @param dimension    Dimension of the board
+     * @return  Shared tables
+     */
+    static synchronized PieceSquareTables forDimension(int dimension){
+        PieceSquareTables tables = cache.get(dimension);
+        if(tables == null){
+            tables = new PieceSquareTables(dimension);
+            cache.put(dimension, tables);
+        }
+        return tables;
+    }
+
+    private PieceSquareTables(int dimension){
+        int squares = dimension * dimension;
+        values = new int[2][PieceType.values().length][squares];
+
+        for(Side side : Side.values()){
+            for(PieceType type : PieceType.values()){
+                for(int id = 0; id < squares; id++){
+                    // Black's back rank is row 0 and it moves down, White's is row 7 and it moves up
+                    int x = id % dimension, y = id / dimension, rank = side == Side.BLACK ? y : 7 - y;
+                    values[side.toInt()][type.index][id] = type.value + positional(type, dimension, x, y, rank);
+                }
+            }
+        }
+    }
+
+    /**
+     * Positional bonus of a piece.
+     * @param type         Type of the piece
+     * @param dimension    Dimension of the board
+     * @param x            Column
+     * @param y            Row
+     * @param rank         Rows in front of the side's back rank, negative behind it
+     * @return  Bonus in centipawns
+     */
+    private static int positional(PieceType type, int dimension, int x, int y, int rank){
+        // 0 on the edge up to 8 in the center, whatever the dimension
+        int distance = Math.max(Math.abs(2 * x - (dimension - 1)), Math.abs(2 * y - (dimension - 1)));
+        int center = (dimension - 1 - distance) * 8 / Math.max(1, dimension - 1);
+
+        switch (type){
+            case PAWN:
+                // Pawns start on rank 1
+                return Math.max(0, Math.min(rank - 1, 6)) * 8 + center;
+            case KNIGHT:
+                return 5 * center - 20;
+            case BISHOP:
+                return 3 * center - 10;
+            case QUEEN:
+            case CANNON:
+            case TURNER:
+                return 2 * center;
+            case KING:
+                return -10 * Math.min(Math.abs(rank), 4) - 2 * center;
+        }
+        return 0;
+    }
+
+    /**
+     * Value of a piece standing on a location.
+     * @param piece    Chess piece
+     * @param id       Location id
+     * @return  Material and positional value
+     */
+    int valueOf(ChessPiece piece, int id){
+        return values[piece.side.toInt()][piece.type.index][id];
+    }
+
+    /**
+     * Compute the score of a side from scratch.
+     * @param board    A SquareBoard
+     * @param side     Side to score
+     * @return  Sum of the values of its pieces, same as SquareBoard.scores
+     */
+    int scoreOf(SquareBoard board, Side side){
+        int score = 0;
+        for(ChessPiece piece : board.pieces){
+            if(piece.side == side)  score += valueOf(piece, piece.location);
+        }
+        return score;
+    }
+}
@@ -1,9 +1,11 @@
 public enum PieceType {
-    KING (0), QUEEN (1), ROOK (2), BISHOP (3), KNIGHT (4), PAWN (5), CANNON (6), TURNER (7);
+    KING (0, 0), QUEEN (1, 900), ROOK (2, 500), BISHOP (3, 330), KNIGHT (4, 320), PAWN (5, 100), CANNON (6, 550), TURNER (7, 400);
 
     int index;
-    PieceType(int index){
+    int value;  /**< Material value in centipawns, 0 for the King which is never captured */
+    PieceType(int index, int value){
         this.index = index;
+        this.value = value;
     }
 
     static char[][] symbols = {
@@ -11,6 +13,8 @@ public enum PieceType {
             {'♔', '♕', '♖', '♗', '♘', '♙', '☆', '☖'}
     };
 
+    static String letters = "kqrbnpct";    /**< Position letters by index, upper case for White */
+
     /**
      * Get the corresponding symbol for a Side.
      * @param side    Side of a piece
@@ -19,4 +23,24 @@ public enum PieceType {
     public char toSymbol(Side side){
         return symbols[side.toInt()][index];
     }
+
+    /**
+     * Get the letter of the PieceType in a position string.
+     * @param side    Side of a piece
+     * @return  Lower case for Black, upper case for White
+     */
+    public char toLetter(Side side){
+        char letter = letters.charAt(index);
+        return side == Side.WHITE ? Character.toUpperCase(letter) : letter;
+    }
+
+    /**
+     * Reverse lookup of a PieceType from a position letter of either case.
+     * @param letter    A letter
+     * @return  A PieceType, null if not a valid letter.
+     */
+    static PieceType fromLetter(char letter){
+        int index = letters.indexOf(Character.toLowerCase(letter));
+        return index == -1 ? null : values()[index];
+    }
 }
@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EmptyStackException;
 import java.util.Stack;
 
@@ -10,15 +11,29 @@ public class SquareBoard extends Board{
     int dimension;          /**< Dimension of the board */
     int maxId;              /**< Max location id for the board */
     NormalGameRule rule;    /**< Rule chosen for the board */
-    ChessPiece[][] grid;    /**< 2D grid of the board */
+    ChessPiece[] mailbox;   /**< Padded 1D board, see BoardGeometry for the layout */
+    BoardGeometry geometry; /**< Precomputed tables shared by boards of the same dimension */
+    BitBoard bitboard;      /**< Bitboard mirror of the mailbox, null if the dimension is not supported */
+    AttackMap attacks;      /**< Squares attacked by each side, null once a side has too many pieces to track */
+    Zobrist zobrist;        /**< Zobrist keys shared by boards of the same dimension */
+    long key;               /**< XOR of the Zobrist keys of all pieces, see #hash */
+    PieceSquareTables tables;   /**< Piece-square values shared by boards of the same dimension */
+    int[] scores;           /**< Material and piece-square score by side, see #evaluate */
+    NeuralAccumulator accumulator;  /**< Network evaluation kept in sync, null unless useNetwork was called */
     int move;               /**< Keeps track of moves */
     Stack<Mover> history;   /**< Move history*/
+    UndoStack undoStack;    /**< Moves played with makeMove */
     Side sideInCheck;
 
+    static final ChessPiece OFF_BOARD = new ChessPiece(null, null, -1);    /**< Sentinel around the board in the mailbox */
+
     SquareBoard(NormalGameRule rule){
         this.dimension = rule.width;
         this.maxId = dimension * dimension - 1;
         this.rule = rule;
+        this.geometry = BoardGeometry.forDimension(dimension);
+        this.zobrist = Zobrist.forDimension(dimension);
+        this.tables = PieceSquareTables.forDimension(dimension);
 
         init();
     }
@@ -28,9 +43,19 @@ public class SquareBoard extends Board{
      */
     private void init(){
         pieces = new ArrayList<>();                     //1D list of all pieces
-        grid = new ChessPiece[dimension][dimension];    //2D array of all pieces
+        mailbox = new ChessPiece[geometry.cells];       //Padded 1D array of all pieces
+        Arrays.fill(mailbox, OFF_BOARD);
+        for(int cell : geometry.cellOf){
+            mailbox[cell] = null;
+        }
+        bitboard = BitBoard.forDimension(dimension);    //Bitboard mirror of the mailbox
+        attacks = new AttackMap(this);                  //Attacks kept in sync with the mailbox
+        key = 0;
+        scores = new int[2];
+        if(accumulator != null) accumulator.refresh();
 
         history = new Stack<>();    //List of results as history
+        undoStack = new UndoStack();
 
         move = 0;
         sideInCheck = null;
@@ -43,11 +68,46 @@ public class SquareBoard extends Board{
     public void add(ChessPiece piece){
         if(piece == null)   return;
 
+        place(piece);
+        System.out.println("Created " + piece.type.name() + " at " + getLoc(piece));
+    }
+
+    /**
+     * Add a chess piece to the board without printing anything.
+     * @param piece    A pre-configured ChessPiece
+     */
+    void place(ChessPiece piece){
+        piece.index = pieces.size();
         pieces.add(piece);
-        Location location = getLoc(piece.location);
-        grid[location.x][location.y] = piece;
+        setPieceAtLocation(piece, piece.location);
+    }
 
-        System.out.println("Created " + piece.type.name() + " at " + location);
+    /**
+     * Take a piece out of the piece list in constant time, moving the last piece into
+     * its index. The piece keeps its index for attach.
+     * @param piece    Piece in the list
+     */
+    private void detach(ChessPiece piece){
+        ChessPiece last = pieces.remove(pieces.size() - 1);
+        if(last != piece){
+            pieces.set(piece.index, last);
+            last.index = piece.index;
+        }
+    }
+
+    /**
+     * Put back the last piece taken out by detach, restoring the order of the list.
+     * @param piece    Piece taken out by the latest detach not yet undone
+     */
+    private void attach(ChessPiece piece){
+        if(piece.index == pieces.size()){
+            pieces.add(piece);
+            return;
+        }
+        ChessPiece moved = pieces.get(piece.index);
+        moved.index = pieces.size();
+        pieces.add(moved);
+        pieces.set(piece.index, piece);
     }
 
     /**
@@ -58,9 +118,9 @@ public class SquareBoard extends Board{
         if(piece == null)   return;
 
         Location location = getLoc(piece);
-        grid[location.x][location.y] = null;
+        setPieceAtLocation(null, location);
         piece.location = -1;
-        pieces.remove(piece);
+        detach(piece);
     }
 
     /**
@@ -71,6 +131,20 @@ public class SquareBoard extends Board{
      * @return  True if the request is successful.
      */
     public boolean move(ChessPiece piece, Location newLoc, boolean tryMove){
+        return move(piece, newLoc, tryMove, true);
+    }
+
+    /**
+     * Request moving a piece on the board, optionally leaving check, checkmate and
+     * stalemate of the opponent to the caller, such as to an AnalysisService. The
+     * side in check is then cleared until the caller sets it.
+     * @param piece          Target piece
+     * @param newLoc         New location
+     * @param tryMove        True if you wish to immediately revert the move action.
+     * @param checkStatus    False to skip checking the opponent after the move
+     * @return  True if the request is successful.
+     */
+    public boolean move(ChessPiece piece, Location newLoc, boolean tryMove, boolean checkStatus){
         if(piece == null)   return false;
         if(piece.location == -1)    return false;   // already eaten
         if(piece.side != getTurn()){
@@ -112,6 +186,7 @@ public class SquareBoard extends Board{
             }
 
             move++;
+            if(!checkStatus)    return true;
 
             //check if opponent king is in check
             NormalGameRule.KingCheckCheckerResult kingCheckResult = rule.KingBeingCheckChecker(piece.side.opposite());
@@ -146,6 +221,94 @@ public class SquareBoard extends Board{
         return move(piece, newLoc, false);
     }
 
+    /**
+     * Check if a move can be made without leaving the own king in check.
+     * Unlike a try move, this ignores whose turn it is and does not print anything.
+     * @param piece     Target piece
+     * @param newLoc    New location
+     * @return  True if the move is legal
+     */
+    boolean isMoveSafe(ChessPiece piece, Location newLoc){
+        if(piece.location == -1 || piece.location == newLoc.id)    return false;
+
+        Mover mover = new Mover(piece);
+        if(mover.move(newLoc).success){
+            mover.revert();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Play a move quietly, for searches walking the game tree.
+     * The move is not validated, nothing is printed, and neither the history nor
+     * the game status is touched. Moves must be undone with unmakeMove in reverse order.
+     * @param encoded    Legal move, as generated by NormalGameRule.generateMoves
+     */
+    void makeMove(int encoded){
+        int from = Move.getFrom(encoded), to = Move.getTo(encoded);
+        ChessPiece piece = mailbox[geometry.cellOf[from]], eaten = mailbox[geometry.cellOf[to]];
+
+        if(eaten != null){
+            detach(eaten);
+            setPieceAtLocation(null, to);
+            eaten.location = -1;
+        }
+        undoStack.push(encoded, piece, eaten);
+
+        setPieceAtLocation(null, from);
+        piece.moved = true;
+        piece.previousDirection = geometry.direction(from, to);
+        setPieceAtLocation(piece, to);
+        move++;
+    }
+
+    /**
+     * Take back the last move played with makeMove.
+     */
+    void unmakeMove(){
+        UndoStack stack = undoStack;
+        int top = --stack.size;
+        int from = Move.getFrom(stack.moves[top]), to = Move.getTo(stack.moves[top]);
+        ChessPiece piece = mailbox[geometry.cellOf[to]], eaten = stack.eaten[top];
+
+        setPieceAtLocation(null, to);
+        if(eaten != null){
+            attach(eaten);
+            setPieceAtLocation(eaten, to);
+        }
+        piece.moved = stack.moved[top];
+        piece.previousDirection = stack.directions[top];
+        setPieceAtLocation(piece, from);
+        stack.eaten[top] = null;
+        move--;
+    }
+
+    /**
+     * Parallel arrays holding what makeMove needs to restore, growing as deep as the search goes.
+     */
+    static class UndoStack{
+        int size;
+        int[] moves = new int[64];
+        boolean[] moved = new boolean[64];              /**< Moved flag of the piece before the move */
+        Direction[] directions = new Direction[64];     /**< previousDirection of the piece before the move */
+        ChessPiece[] eaten = new ChessPiece[64];
+
+        void push(int move, ChessPiece piece, ChessPiece eatenPiece){
+            if(size == moves.length){
+                moves = Arrays.copyOf(moves, size * 2);
+                moved = Arrays.copyOf(moved, size * 2);
+                directions = Arrays.copyOf(directions, size * 2);
+                eaten = Arrays.copyOf(eaten, size * 2);
+            }
+            moves[size] = move;
+            moved[size] = piece.moved;
+            directions[size] = piece.previousDirection;
+            eaten[size] = eatenPiece;
+            size++;
+        }
+    }
+
     private void puttingInCheck(Side checkSide){
         System.out.println("King is in check");
         sideInCheck = checkSide;
@@ -182,7 +345,7 @@ public class SquareBoard extends Board{
 
                 //update internal location
                 piece.moved = true;
-                piece.previousDirection = record.origin.getDirection(record.destination);
+                piece.previousDirection = geometry.direction(record.origin.id, record.destination.id);
                 setPieceAtLocation(piece, newLoc);
 
                 record.actionDone = true;
@@ -220,10 +383,10 @@ public class SquareBoard extends Board{
             //empty destination
             setPieceAtLocation(null, record.destination);
 
-            //re-add eaten piece (IF ANY)
+            //re-add eaten piece (IF ANY) at its original position in the piece list
             if(record.eaten != null) {
-                record.eaten.location = record.destination.id;
-                add(record.eaten);
+                attach(record.eaten);
+                setPieceAtLocation(record.eaten, record.destination);
             }
 
             //revert to old location
@@ -263,7 +426,7 @@ public class SquareBoard extends Board{
      * @return  ChessPiece at the provided location, null if nothing is there
      */
     public ChessPiece getPieceAtLocation(Location location){
-        return grid[location.x][location.y];
+        return mailbox[geometry.cellOf[location.id]];
     }
 
     /**
@@ -283,7 +446,8 @@ public class SquareBoard extends Board{
      * @return  ChessPiece at location, null if nothing is there
      */
     public ChessPiece getPieceAtLocation(int locationId){
-        return getPieceAtLocation(getLoc(locationId));
+        if(locationId < 0 || locationId > maxId)    throw new IllegalArgumentException("Invalid ID");
+        return mailbox[geometry.cellOf[locationId]];
     }
 
     /**
@@ -294,12 +458,40 @@ public class SquareBoard extends Board{
      * @param y        y
      */
     public void setPieceAtLocation(ChessPiece piece, int x, int y){
-        grid[x][y] = piece;
+        int id = y * dimension + x, cell = geometry.cellOf[id];
+        ChessPiece previous = mailbox[cell];
+        if(previous != null){
+            mailbox[cell] = null;
+            key ^= zobrist.keyOf(previous, id);
+            scores[previous.side.toInt()] -= tables.valueOf(previous, id);
+            if(accumulator != null) accumulator.lift(previous, id);
+            if(bitboard != null)    bitboard.lift(previous, id);
+            if(attacks != null)     attacks.lift(previous, id);
+        }
+
         if(piece != null) {
-            piece.location = getLoc(x, y).id;
+            mailbox[cell] = piece;
+            piece.location = id;
+            key ^= zobrist.keyOf(piece, id);
+            scores[piece.side.toInt()] += tables.valueOf(piece, id);
+            if(accumulator != null) accumulator.place(piece, id);
+            if(bitboard != null)    bitboard.place(piece, id);
+            if(attacks != null && !attacks.place(piece, id)){
+                attacks = null;
+            }
         }
     }
 
+    /**
+     * Set piece at location on board.
+     * @warning    This method does not check if move is valid or not.
+     * @param piece         Piece in which you want to change its location
+     * @param locationId    Location id
+     */
+    public void setPieceAtLocation(ChessPiece piece, int locationId){
+        setPieceAtLocation(piece, geometry.xOf[locationId], geometry.yOf[locationId]);
+    }
+
     /**
      * Set piece at location on board.
      * @warning    This method does not check if move is valid or not.
@@ -307,39 +499,38 @@ public class SquareBoard extends Board{
      * @param location    Location object
      */
     public void setPieceAtLocation(ChessPiece piece, Location location){
-        grid[location.x][location.y] = piece;
-        if(piece != null){
-            piece.location = location.id;
-        }
+        setPieceAtLocation(piece, location.x, location.y);
     }
 
 
     /**
-     * Generate a Location object by a ChessPiece's location
+     * Get the Location object of a ChessPiece's location
      * @param piece    Chess piece
-     * @return  A new location object
+     * @return  The shared location object
      */
     public Location getLoc(ChessPiece piece){
-        return new Location(piece.location, rule);
+        return getLoc(piece.location);
     }
 
     /**
-     * Generate a Location object by a location id
+     * Get the Location object of a location id
      * @param id    id
-     * @return  A new location object
+     * @return  The shared location object
      */
     public Location getLoc(int id){
-        return new Location(id, rule);
+        if(id < 0 || id > maxId)    throw new IllegalArgumentException("Invalid ID");
+        return geometry.locations[id];
     }
 
     /**
-     * Generate a Location object by x and y
+     * Get the Location object at x and y
      * @param x    x
      * @param y    y
-     * @return  A new location object
+     * @return  The shared location object
      */
     public Location getLoc(int x, int y){
-        return new Location(x, y, rule);
+        if(x < 0 || y < 0 || x >= dimension || y >= dimension)  throw new IllegalArgumentException("Invalid dimension");
+        return geometry.locations[y * dimension + x];
     }
 
 
@@ -351,11 +542,13 @@ public class SquareBoard extends Board{
      * @return  A chess piece that is in the way if any
      */
     public ChessPiece findCollision(Direction direction, int oldId, int newId){
-        int currentId = direction.actions.next(oldId, dimension);
-        if(currentId == newId)  return null;
-
-        for(;newId != currentId; currentId = direction.actions.next(currentId, dimension)){
-            ChessPiece collision = getPieceAtLocation(getLoc(currentId));
+        int step = geometry.offsets[direction.ordinal()], end = geometry.cellOf[newId];
+        for(int cell = geometry.cellOf[oldId] + step; cell != end; cell += step){
+            ChessPiece collision = mailbox[cell];
+            if(collision == OFF_BOARD){
+                // the destination is not in this direction
+                return null;
+            }
             if(collision != null){
                 return collision;
             }
@@ -371,6 +564,40 @@ public class SquareBoard extends Board{
         return move % 2 == 0 ? Side.WHITE : Side.BLACK;
     }
 
+    /**
+     * Get the Zobrist key of the position, including the side to move.
+     * Pieces must be lifted before their moved flag or previousDirection changes,
+     * as the Mover does, for the key to stay in sync.
+     * @return  A 64-bit key
+     */
+    public long hash(){
+        return getTurn() == Side.BLACK ? key ^ zobrist.side : key;
+    }
+
+    /**
+     * Static evaluation by material and piece-square values, kept up to date by
+     * setPieceAtLocation so it costs the same whatever the number of pieces.
+     * @param side    Side to score for
+     * @return  Score in centipawns, positive if the side is ahead
+     */
+    public int evaluate(Side side){
+        return scores[side.toInt()] - scores[side.opposite().toInt()];
+    }
+
+    /**
+     * Evaluate with a neural network from now on, kept up to date by setPieceAtLocation
+     * like the piece-square score.
+     * @param network    Network for the dimension of the board, null to stop using one
+     */
+    void useNetwork(NeuralNetwork network){
+        if(network == null){
+            accumulator = null;
+        }else if(accumulator == null || accumulator.network != network){
+            accumulator = new NeuralAccumulator(network, this);
+            accumulator.refresh();
+        }
+    }
+
     /**
      * Undo a number of consecutive moves.
      * @param moves    Number of moves to be reverted
@@ -416,7 +643,7 @@ public class SquareBoard extends Board{
         for(int y = 0; y < dimension; y++){
             System.out.print((char)(dimension - y - 1 + 65297) + "|");
             for(int x = 0; x < dimension; x++){
-                ChessPiece cell = grid[x][y];
+                ChessPiece cell = mailbox[geometry.cellOf[y * dimension + x]];
                 System.out.print(cell != null ? cell.getSymbol() : '　');
                 System.out.print('|');
             }
@@ -0,0 +1,151 @@
+/**
+ * Static exchange evaluation: the material a move wins or loses once both sides
+ * have made every capture on its destination that pays off, without searching.
+ *
+ * Each side recaptures with its least valuable attacker, and may stop whenever
+ * going on would lose more. Pieces which took part are skipped when walking rays,
+ * so sliders lined up behind them (x-rays) join in turn, and a Cannon recaptures
+ * either along a clear line or by hopping over exactly one remaining piece, which
+ * changes as screens are captured away. Pins and checks are ignored, and the King
+ * only recaptures if nothing can take it back.
+ */
+public class StaticExchange {
+    private static final int KING_VALUE = 20000;    /**< Value of the King as an attacker, more than any exchange */
+    private static final int MAX_EXCHANGES = 64;
+
+    SquareBoard board;
+
+    // mailbox cells of pieces that took part are marked with the current stamp
+    private int stamp;
+    private int[] used;
+    private int[] gain = new int[MAX_EXCHANGES];
+
+    StaticExchange(SquareBoard board){
+        this.board = board;
+        used = new int[board.geometry.cells];
+    }
+
+    /**
+     * Evaluate a move by the exchange it starts on its destination.
+     * @param move    Pseudo legal move of the side to move, a capture or a quiet move
+     * @return  Material won in centipawns, negative if the moving piece is lost for less
+     */
+    int evaluate(int move){
+        BoardGeometry geometry = board.geometry;
+        int target = geometry.cellOf[Move.getTo(move)], from = geometry.cellOf[Move.getFrom(move)];
+        ChessPiece attacker = board.mailbox[from], victim = board.mailbox[target];
+        Side side = attacker.side;
+
+        stamp++;
+        int depth = 0;
+        gain[0] = victim == null ? 0 : victim.type.value;
+        do {
+            depth++;
+            // what the other side is up if it takes the piece on the target and nothing takes back
+            gain[depth] = valueOf(attacker) - gain[depth - 1];
+            used[from] = stamp;
+            side = side.opposite();
+            from = leastValuableAttacker(side, target);
+            attacker = from == -1 ? null : board.mailbox[from];
+        } while(attacker != null && depth < MAX_EXCHANGES - 1);
+
+        while(--depth > 0){
+            gain[depth - 1] = -Math.max(-gain[depth - 1], gain[depth]);
+        }
+        return gain[0];
+    }
+
+    /**
+     * Check if a move loses material, skipping the exchange when the victim is worth
+     * at least the moving piece.
+     * @param move    Pseudo legal move of the side to move
+     * @return  True if the exchange is negative
+     */
+    boolean isLosing(int move){
+        ChessPiece attacker = board.getPieceAtLocation(Move.getFrom(move)), victim = board.getPieceAtLocation(Move.getTo(move));
+        if(victim != null && victim.type.value >= valueOf(attacker))    return false;
+        return evaluate(move) < 0;
+    }
+
+    private static int valueOf(ChessPiece piece){
+        return piece.type == PieceType.KING ? KING_VALUE : piece.type.value;
+    }
+
+    /**
+     * Find the cheapest piece of a side able to capture on a cell, skipping used pieces.
+     * @param side      Side to recapture
+     * @param target    Mailbox cell of the exchange
+     * @return  Mailbox cell of the attacker, -1 if there is none
+     */
+    private int leastValuableAttacker(Side side, int target){
+        BoardGeometry geometry = board.geometry;
+        int best = -1, bestValue = Integer.MAX_VALUE;
+
+        // Pawns capture forwards, so they stand one step backwards from the target
+        int backward = geometry.offsets[(side == Side.WHITE ? Direction.S : Direction.N).ordinal()];
+        for(int cell = target + backward - 1; cell <= target + backward + 1; cell += 2){
+            if(isAttacker(cell, side, PieceType.PAWN)) return cell;
+        }
+        for(int offset : geometry.knightOffsets){
+            if(isAttacker(target + offset, side, PieceType.KNIGHT)) return target + offset;
+        }
+
+        for(Direction direction : Direction.ALL){
+            int step = geometry.offsets[direction.ordinal()];
+            int cell = nextPiece(target, step);
+            ChessPiece piece = board.mailbox[cell];
+            if(piece == SquareBoard.OFF_BOARD)  continue;
+
+            boolean attacks = piece.type == PieceType.KING ? cell == target + step : attacksAlong(piece, direction.opposite());
+            if(piece.side == side && valueOf(piece) < bestValue && attacks){
+                best = cell;
+                bestValue = valueOf(piece);
+            }
+
+            // a Cannon behind exactly one piece hops over it
+            if(direction.dx == 0 || direction.dy == 0){
+                int hopper = nextPiece(cell, step);
+                ChessPiece cannon = board.mailbox[hopper];
+                if(cannon != SquareBoard.OFF_BOARD && cannon.side == side && cannon.type == PieceType.CANNON
+                        && cannon.type.value < bestValue){
+                    best = hopper;
+                    bestValue = cannon.type.value;
+                }
+            }
+        }
+        return best;
+    }
+
+    private boolean isAttacker(int cell, Side side, PieceType type){
+        ChessPiece piece = board.mailbox[cell];
+        return piece != null && piece != SquareBoard.OFF_BOARD && piece.side == side && piece.type == type && used[cell] != stamp;
+    }
+
+    /**
+     * Walk a ray to the first piece which has not taken part yet.
+     * @return  Mailbox cell of the piece or the sentinel ending the ray
+     */
+    private int nextPiece(int cell, int step){
+        ChessPiece[] mailbox = board.mailbox;
+        for(cell += step; mailbox[cell] == null || (mailbox[cell] != SquareBoard.OFF_BOARD && used[cell] == stamp); cell += step);
+        return cell;
+    }
+
+    /**
+     * Check if a piece captures along a line with nothing in between.
+     * @param piece        Piece on the line
+     * @param direction    Direction from the piece towards the target
+     * @return  True if the piece attacks in that direction
+     */
+    private static boolean attacksAlong(ChessPiece piece, Direction direction){
+        boolean diagonal = direction.dx != 0 && direction.dy != 0;
+        switch (piece.type){
+            case QUEEN:     return true;
+            case BISHOP:    return diagonal;
+            case ROOK:
+            case CANNON:    return !diagonal;
+            case TURNER:    return !diagonal && piece.previousDirection != direction;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,567 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Endgame tablebase: win, draw or loss and distance to mate of every position of a
+ * material set, such as KQvK, on one board dimension.
+ *
+ * Positions are indexed by the squares of the pieces in material order and the side
+ * to move, index = ((square of last piece * squares + ...) * squares + square of
+ * first piece) * 2 + side. Each result is packed into a few bits: the outcome for
+ * the side to move in the low 2 bits, and the distance to mate in plies above.
+ * Pawns and Turners carry state which is not in the squares, so material sets
+ * with them are not supported.
+ *
+ * Files are big-endian: the magic "FCTB", the version, the dimension, the bits per
+ * position, the number of positions, the longest distance to mate and the length of
+ * the material as ints, the material in ASCII padded to 8 bytes, then the packed
+ * results as longs. They are probed through a memory-mapped buffer.
+ */
+public class Tablebase {
+    static final int MAGIC = 0x46435442;    /**< "FCTB" */
+    static final int VERSION = 1;
+    static final int DRAW = 0, WIN = 1, LOSS = 2, INVALID = 3;  /**< Outcomes for the side to move */
+    static final int UNKNOWN = -1;          /**< Probe result of a position the tablebase does not cover */
+    static final int MAX_PIECES = 5;        /**< Most pieces, Kings included, a tablebase may have */
+
+    String material;        /**< Canonical material, see #canonical */
+    int dimension;
+    int squares;
+    int bits;               /**< Bits per position */
+    int size;               /**< Number of positions */
+    int longest;            /**< Longest distance to mate in plies */
+    PieceType[] types;      /**< Types of the pieces in material order */
+    Side[] sides;           /**< Sides of the pieces in material order */
+    ByteBuffer data;        /**< Whole file, mapped or on the heap */
+    private int header;     /**< Bytes before the first packed long */
+
+    private Tablebase(ByteBuffer data) throws IOException{
+        if(data.capacity() < 28 || data.getInt(0) != MAGIC || data.getInt(4) != VERSION){
+            throw new IOException("Not a tablebase file");
+        }
+        this.data = data;
+        dimension = data.getInt(8);
+        bits = data.getInt(12);
+        size = data.getInt(16);
+        longest = data.getInt(20);
+        byte[] name = new byte[data.getInt(24)];
+        for(int i = 0; i < name.length; i++)    name[i] = data.get(28 + i);
+        material = new String(name, StandardCharsets.US_ASCII);
+        header = align(28 + name.length);
+        squares = dimension * dimension;
+        List<PieceType> types = new ArrayList<>();
+        List<Side> sides = new ArrayList<>();
+        parse(material, types, sides);
+        this.types = types.toArray(new PieceType[0]);
+        this.sides = sides.toArray(new Side[0]);
+
+        if(data.capacity() < header + 8L * words(size, bits)) throw new IOException("Truncated tablebase file");
+    }
+
+    private static int align(int bytes){
+        return (bytes + 7) & ~7;
+    }
+
+    private static int words(int size, int bits){
+        return (int) (((long) size * bits + 63) >>> 6);
+    }
+
+    /**
+     * Split a canonical material into its pieces.
+     * @param material    Canonical material
+     * @param types       Receives the types of the pieces in material order
+     * @param sides       Receives their sides
+     */
+    private static void parse(String material, List<PieceType> types, List<Side> sides){
+        Side side = Side.WHITE;
+        for(char c : material.toCharArray()){
+            if(c == 'v'){
+                side = Side.BLACK;
+                continue;
+            }
+            types.add(PieceType.fromLetter(c));
+            sides.add(side);
+        }
+    }
+
+    /**
+     * Map a tablebase file. The mapping stays valid once the file is closed.
+     * @param file    Tablebase file
+     * @return  The tablebase
+     * @throws IOException    If the file cannot be read or is not a tablebase file
+     */
+    static Tablebase open(File file) throws IOException{
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            return new Tablebase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Get the packed result of a position.
+     * @param index    Position index
+     * @return  Outcome in the low 2 bits, distance to mate in plies above
+     */
+    int get(int index){
+        long bit = (long) index * bits;
+        int word = (int) (bit >>> 6), shift = (int) (bit & 63);
+        long value = data.getLong(header + 8 * word) >>> shift;
+        if(shift + bits > 64)   value |= data.getLong(header + 8 * (word + 1)) << (64 - shift);
+        return (int) (value & ((1L << bits) - 1));
+    }
+
+    static int outcome(int result){
+        return result & 3;
+    }
+
+    static int distance(int result){
+        return result >>> 2;
+    }
+
+    /**
+     * Find the index of the position on a board.
+     * @param board    Board with the material of the tablebase
+     * @return  Position index, -1 if the material differs
+     */
+    int indexOf(SquareBoard board){
+        if(board.dimension != dimension || board.pieces.size() != types.length)    return -1;
+
+        // pieces of the same type and side may come in any order
+        boolean[] used = new boolean[types.length];
+        long index = 0;
+        for(int i = types.length - 1; i >= 0; i--){
+            int square = -1;
+            for(int j = 0; j < types.length; j++){
+                ChessPiece piece = board.pieces.get(j);
+                if(!used[j] && piece.type == types[i] && piece.side == sides[i]){
+                    used[j] = true;
+                    square = piece.location;
+                    break;
+                }
+            }
+            if(square == -1)    return -1;
+            index = index * squares + square;
+        }
+        return (int) (index * 2 + board.getTurn().toInt());
+    }
+
+    /**
+     * Look up the position on a board.
+     * @param board    Board to probe
+     * @return  Packed result, see #get, or UNKNOWN if the material differs
+     */
+    int probe(SquareBoard board){
+        int index = indexOf(board);
+        return index == -1 ? UNKNOWN : get(index);
+    }
+
+    /**
+     * Write the tablebase file.
+     * @param file    Tablebase file
+     * @throws IOException    If the file cannot be written
+     */
+    void write(File file) throws IOException{
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer whole = data.duplicate();
+            whole.clear();
+            while(whole.hasRemaining()) channel.write(whole);
+        }
+    }
+
+    /**
+     * Put a material set in canonical order: White's pieces, 'v', then Black's, each
+     * side King first and then by PieceType, in upper case. "kvkq" becomes "KvKQ".
+     * @param material    Material such as KQvK
+     * @return  Canonical material
+     * @throws IllegalArgumentException    If the material is not supported
+     */
+    static String canonical(String material){
+        String[] sides = material.toUpperCase().split("V", -1);
+        if(sides.length != 2)   throw new IllegalArgumentException("Invalid material " + material);
+
+        StringBuilder result = new StringBuilder();
+        for(String side : sides){
+            List<PieceType> types = new ArrayList<>();
+            for(char c : side.toCharArray()){
+                PieceType type = PieceType.fromLetter(c);
+                if(type == null || type == PieceType.PAWN || type == PieceType.TURNER){
+                    throw new IllegalArgumentException("Unsupported material " + material);
+                }
+                types.add(type);
+            }
+            if(types.stream().filter(type -> type == PieceType.KING).count() != 1){
+                throw new IllegalArgumentException("Invalid material " + material);
+            }
+            types.sort(Comparator.comparingInt(type -> type.index));
+            if(result.length() > 0) result.append('v');
+            for(PieceType type : types) result.append(type.toLetter(Side.WHITE));
+        }
+        if(result.length() - 1 > MAX_PIECES)    throw new IllegalArgumentException("Too many pieces in " + material);
+        return result.toString();
+    }
+
+    /**
+     * Get the canonical material of a board.
+     * @param board    A SquareBoard
+     * @return  Material such as KQvK
+     */
+    static String materialOf(SquareBoard board){
+        StringBuilder[] sides = {new StringBuilder(), new StringBuilder()};
+        for(PieceType type : PieceType.values()){
+            for(ChessPiece piece : board.pieces){
+                if(piece.type == type)  sides[piece.side.toInt()].append(type.toLetter(Side.WHITE));
+            }
+        }
+        return sides[Side.WHITE.toInt()] + "v" + sides[Side.BLACK.toInt()];
+    }
+
+    /**
+     * Generates tablebases by retrograde analysis, together with every smaller material
+     * set reached by captures, in parallel over ranges of position indexes.
+     *
+     * The first pass marks impossible positions, where the side not to move is in check
+     * or pieces share a square, and checkmates as lost in 0. Each following pass n then
+     * visits the unresolved positions once: a position is won in n plies if a move
+     * reaches a position lost in fewer, and lost in n plies if every move reaches a
+     * position won in fewer. Results of the current pass are never used by it, so the
+     * order in which threads visit positions does not matter. Positions still unresolved
+     * once nothing changes are draws.
+     */
+    static class Generator{
+        int dimension;
+        ForkJoinPool pool;
+        Map<String, Tablebase> tables = new LinkedHashMap<>();  /**< Generated tablebases by material, smallest first */
+
+        /**
+         * @param dimension    Dimension of the board
+         * @param pool         Threads to generate with
+         */
+        Generator(int dimension, ForkJoinPool pool){
+            this.dimension = dimension;
+            this.pool = pool;
+        }
+
+        /**
+         * Generate the tablebase of a material set, and first those it captures into.
+         * @param material    Material such as KQvK
+         * @return  The tablebase, on the heap
+         */
+        Tablebase generate(String material){
+            material = canonical(material);
+            Tablebase table = tables.get(material);
+            if(table != null)   return table;
+
+            Build build = new Build(this, material);
+            table = build.run();
+            tables.put(material, table);
+            return table;
+        }
+    }
+
+    /**
+     * State of the generation of one material set.
+     */
+    private static class Build{
+        Generator generator;
+        String material;
+        PieceType[] types;
+        Side[] sides;
+        int squares;
+        int size;
+        Tablebase[] captured;   /**< Tablebase reached by capturing each piece, null for Kings */
+        short[] results;        /**< Outcome and distance by position, 0 while unresolved */
+        String start;           /**< Position string holding the material, to set up workers from */
+        ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> new Worker(this));
+        AtomicLong changed = new AtomicLong();
+
+        Build(Generator generator, String material){
+            this.generator = generator;
+            this.material = material;
+            squares = generator.dimension * generator.dimension;
+
+            List<PieceType> types = new ArrayList<>();
+            List<Side> sides = new ArrayList<>();
+            parse(material, types, sides);
+            this.types = types.toArray(new PieceType[0]);
+            this.sides = sides.toArray(new Side[0]);
+
+            long positions = 2;
+            for(int i = 0; i < this.types.length; i++)  positions *= squares;
+            if(positions > Integer.MAX_VALUE || this.types.length > squares){
+                throw new IllegalArgumentException("Too many positions for " + material);
+            }
+            size = (int) positions;
+
+            captured = new Tablebase[this.types.length];
+            for(int i = 0; i < this.types.length; i++){
+                if(this.types[i] == PieceType.KING) continue;
+                StringBuilder rest = new StringBuilder(material);
+                rest.deleteCharAt(i < material.indexOf('v') ? i : i + 1);
+                captured[i] = generator.generate(rest.toString());
+            }
+            start = startPosition();
+        }
+
+        /**
+         * Position string with the pieces on the first squares, which need not be legal.
+         */
+        private String startPosition(){
+            int dimension = generator.dimension;
+            StringBuilder position = new StringBuilder();
+            int empty = 0;
+            for(int id = 0; id < squares; id++){
+                if(id > 0 && id % dimension == 0){
+                    if(empty > 0)   position.append(empty);
+                    empty = 0;
+                    position.append('/');
+                }
+                if(id < types.length){
+                    position.append(types[id].toLetter(sides[id]));
+                }else{
+                    empty++;
+                }
+            }
+            if(empty > 0)   position.append(empty);
+            return position.append(" w").toString();
+        }
+
+        Tablebase run(){
+            results = new short[size];
+            int capturedLongest = 0;
+            for(Tablebase table : captured){
+                if(table != null)   capturedLongest = Math.max(capturedLongest, table.longest);
+            }
+
+            // a pass may change nothing while longer mates through captures are still to come
+            for(int pass = 0; ; pass++){
+                changed.set(0);
+                generator.pool.invoke(new Pass(this, 0, size, pass));
+                if(changed.get() == 0 && pass > capturedLongest)    break;
+            }
+            return pack();
+        }
+
+        /**
+         * Pack the results into the file layout.
+         */
+        private Tablebase pack(){
+            int longest = 0;
+            for(short result : results){
+                if((result & 3) != INVALID) longest = Math.max(longest, result >>> 2);
+            }
+            int bits = 2 + (32 - Integer.numberOfLeadingZeros(longest));
+            byte[] name = material.getBytes(StandardCharsets.US_ASCII);
+            int header = align(28 + name.length);
+            long[] words = new long[words(size, bits)];
+            for(int index = 0; index < size; index++){
+                long value = results[index];
+                long bit = (long) index * bits;
+                int word = (int) (bit >>> 6), shift = (int) (bit & 63);
+                words[word] |= value << shift;
+                if(shift + bits > 64)   words[word + 1] |= value >>> (64 - shift);
+            }
+
+            ByteBuffer data = ByteBuffer.allocate(header + 8 * words.length);
+            data.putInt(MAGIC).putInt(VERSION).putInt(generator.dimension).putInt(bits).putInt(size).putInt(longest)
+                    .putInt(name.length).put(name);
+            data.position(header);
+            for(long word : words)  data.putLong(word);
+            try {
+                return new Tablebase(data);
+            }catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * A range of positions visited by one thread in one pass.
+     */
+    private static class Pass extends RecursiveAction{
+        private static final long serialVersionUID = 1L;
+        private static final int CHUNK = 4096;
+
+        Build build;
+        int from, to, pass;
+
+        Pass(Build build, int from, int to, int pass){
+            this.build = build;
+            this.from = from;
+            this.to = to;
+            this.pass = pass;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from > CHUNK){
+                int middle = (from + to) >>> 1;
+                invokeAll(new Pass(build, from, middle, pass), new Pass(build, middle, to, pass));
+                return;
+            }
+            Worker worker = build.workers.get();
+            for(int index = from; index < to; index++){
+                worker.visit(index, pass);
+            }
+        }
+    }
+
+    /**
+     * Board of one thread, set up position by position.
+     */
+    private static class Worker{
+        Build build;
+        NormalGameRule rule;
+        SquareBoard board;
+        ChessPiece[] pieces;    /**< Pieces of the board in material order */
+        int[] locations;
+        MoveList moves = new MoveList();
+
+        Worker(Build build){
+            this.build = build;
+            rule = NormalGameRule.fromPosition(build.start);
+            board = rule.board;
+            pieces = new ChessPiece[build.types.length];
+            locations = new int[pieces.length];
+            for(int i = 0; i < pieces.length; i++){
+                pieces[i] = board.getPieceAtLocation(i);
+            }
+        }
+
+        /**
+         * Try to resolve a position.
+         * @param index    Position index
+         * @param pass     0 to find impossible positions and checkmates, then the distance to mate to find
+         */
+        void visit(int index, int pass){
+            if(build.results[index] != 0)   return;
+            if(!setUp(index)){
+                store(index, INVALID, 0);
+                return;
+            }
+
+            Side side = board.getTurn();
+            if(pass == 0){
+                if(rule.isInCheck(side.opposite())){
+                    store(index, INVALID, 0);
+                }else if(rule.generateMoves(side).isEmpty() && rule.isInCheck(side)){
+                    store(index, LOSS, 0);
+                }
+                return;
+            }
+
+            moves.clear();
+            if(rule.generateMoves(side, moves) == 0) return;    // stalemate
+            boolean allWon = true;
+            for(int i = 0; i < moves.size(); i++){
+                board.makeMove(moves.get(i));
+                int result = child();
+                board.unmakeMove();
+
+                boolean settled = (result >>> 2) < pass;
+                if((result & 3) == LOSS && settled){
+                    store(index, WIN, pass);
+                    return;
+                }
+                if((result & 3) != WIN || !settled) allWon = false;
+            }
+            if(allWon)  store(index, LOSS, pass);
+        }
+
+        private void store(int index, int outcome, int distance){
+            build.results[index] = (short) (outcome | distance << 2);
+            build.changed.incrementAndGet();
+        }
+
+        /**
+         * Place the pieces on the squares of a position.
+         * @return  False if two pieces share a square
+         */
+        private boolean setUp(int index){
+            int squares = build.squares;
+            board.move = Side.fromInt(index & 1) == Side.WHITE ? 0 : 1;
+            index >>>= 1;
+            for(int i = 0; i < pieces.length; i++){
+                locations[i] = index % squares;
+                index /= squares;
+                for(int j = 0; j < i; j++){
+                    if(locations[j] == locations[i])    return false;
+                }
+            }
+
+            // pieces left off the board by a failed set up are skipped
+            for(ChessPiece piece : pieces){
+                if(board.getPieceAtLocation(piece.location) == piece)   board.setPieceAtLocation(null, piece.location);
+            }
+            for(int i = 0; i < pieces.length; i++){
+                board.setPieceAtLocation(pieces[i], locations[i]);
+            }
+            return true;
+        }
+
+        /**
+         * Result of the position after a move, from the side now to move.
+         */
+        private int child(){
+            int captured = -1;
+            long index = 0;
+            for(int i = pieces.length - 1; i >= 0; i--){
+                if(pieces[i].location == -1){
+                    captured = i;
+                    continue;
+                }
+                index = index * build.squares + pieces[i].location;
+            }
+            index = index * 2 + board.getTurn().toInt();
+            return captured == -1 ? build.results[(int) index] : build.captured[captured].get((int) index);
+        }
+    }
+
+    /**
+     * Generate tablebases and write them to files named after their material.
+     *
+     * Usage: java Tablebase [--dim N] [--threads N] [--out directory] material...
+     *
+     * Every material set reached by captures is generated and written too. Prints the
+     * wins, draws, losses and longest mate of each, and the time taken.
+     */
+    public static void main(String[] args) throws IOException{
+        int dimension = 8, threads = Runtime.getRuntime().availableProcessors();
+        File directory = new File(".");
+        List<String> materials = new ArrayList<>();
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]){
+                case "--dim":       dimension = Integer.parseInt(args[++i]); break;
+                case "--threads":   threads = Integer.parseInt(args[++i]); break;
+                case "--out":       directory = new File(args[++i]); break;
+                default:            materials.add(args[i]);
+            }
+        }
+        if(materials.isEmpty()){
+            System.err.println("Usage: java Tablebase [--dim N] [--threads N] [--out directory] material...");
+            System.exit(1);
+        }
+
+        Generator generator = new Generator(dimension, new ForkJoinPool(threads));
+        long start = System.currentTimeMillis();
+        for(String material : materials){
+            generator.generate(material);
+        }
+        for(Tablebase table : generator.tables.values()){
+            int[] counts = new int[4];
+            for(int index = 0; index < table.size; index++){
+                counts[outcome(table.get(index))]++;
+            }
+            File file = new File(directory, table.material + ".fctb");
+            table.write(file);
+            System.out.printf("%-8s %d positions, %d wins, %d draws, %d losses, longest mate %d plies, %d bytes%n",
+                    table.material, table.size - counts[INVALID], counts[WIN], counts[DRAW], counts[LOSS], table.longest, file.length());
+        }
+        System.out.println("Generated in " + (System.currentTimeMillis() - start) + " ms with " + threads + " threads");
+    }
+}
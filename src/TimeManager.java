@@ -0,0 +1,211 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Decides how long the Engine thinks on a move.
+ *
+ * On a clock a move gets a soft budget from the remaining time and the increment,
+ * after which no new iteration of the search starts, and a hard budget after which
+ * the search is aborted in the middle of an iteration. The soft budget shrinks when
+ * the best move has not changed for a few iterations and grows when the score
+ * drops, never past the hard one. With a fixed time per move both budgets are that
+ * time. Times are taken from System.nanoTime, which never goes backwards.
+ *
+ * Every move's think time is kept, to measure how far past its budgets the engine
+ * goes in the worst cases, see #tail.
+ */
+public class TimeManager {
+    static final int MOVES_TO_GO = 30;      /**< Moves the remaining time is spread over when the clock does not say */
+    static final long OVERHEAD = 30;        /**< Milliseconds kept back per move for playing it */
+    static final int STABLE_ITERATIONS = 3; /**< Iterations with the same best move before the soft budget shrinks */
+    static final int SCORE_DROP = 30;       /**< Centipawns the score may fall in one iteration before the soft budget grows */
+    private static final long NO_LIMIT = Long.MAX_VALUE;
+    private static final long MILLIS = 1000000;
+
+    // budgets may be changed from another thread while searching, see Engine#ponderHit
+    volatile long soft, hard;   /**< Budgets in nanoseconds, NO_LIMIT for none */
+    volatile boolean flexible;  /**< True on a clock, where the soft budget follows the search */
+    long start;                 /**< System.nanoTime when the search started */
+
+    private int bestMove, lastScore, stable;
+    private double scale;   /**< Factor of the soft budget from stability and score drops */
+
+    // think time and soft and hard budgets of every move, in nanoseconds
+    private long[] thought = new long[64], softs = new long[64], hards = new long[64];
+    private int moves;
+
+    /**
+     * Think for a fixed time.
+     * @param millis    Time per move, 0 for no limit
+     */
+    void fixed(long millis){
+        soft = hard = millis > 0 ? millis * MILLIS : NO_LIMIT;
+        flexible = false;
+    }
+
+    /**
+     * Think on a clock.
+     * @param remaining    Milliseconds left on the clock of the side to move
+     * @param increment    Milliseconds added after every move
+     * @param movesToGo    Moves until the next time control, 0 if there is none
+     */
+    void clock(long remaining, long increment, int movesToGo){
+        long usable = Math.max(1, remaining - OVERHEAD);
+        long base = remaining / (movesToGo > 0 ? movesToGo : MOVES_TO_GO) + increment * 3 / 4;
+        long softMillis = Math.min(usable, base);
+        // the hard budget never takes more than a third of the clock, unless the increment pays for it
+        long hardMillis = Math.min(usable, Math.max(softMillis, Math.min(4 * softMillis, usable / 3)));
+        soft = Math.max(1, softMillis) * MILLIS;
+        hard = Math.max(1, hardMillis) * MILLIS;
+        flexible = true;
+    }
+
+    /**
+     * Start the clock of a search.
+     */
+    void start(){
+        start = System.nanoTime();
+        bestMove = Move.NONE;
+        stable = 0;
+        scale = 1;
+    }
+
+    long elapsed(){
+        return System.nanoTime() - start;
+    }
+
+    long elapsedMillis(){
+        return elapsed() / MILLIS;
+    }
+
+    /**
+     * Check if the search must be aborted now. Cheap enough to be polled every few nodes.
+     * @return  True once the hard budget is spent
+     */
+    boolean isHardLimitReached(){
+        return hard != NO_LIMIT && System.nanoTime() - start >= hard;
+    }
+
+    /**
+     * Decide if another iteration should start once one has finished.
+     * @param move     Best move of the iteration
+     * @param score    Its score
+     * @return  True if the search should stop
+     */
+    boolean iterationFinished(int move, int score){
+        if(flexible){
+            stable = move == bestMove ? stable + 1 : 0;
+            if(bestMove != Move.NONE && score < lastScore - SCORE_DROP){
+                scale = 2;
+            }else{
+                scale = stable >= STABLE_ITERATIONS ? 0.5 : 1;
+            }
+        }
+        bestMove = move;
+        lastScore = score;
+        return soft != NO_LIMIT && elapsed() >= Math.min(hard, (long) (soft * scale));
+    }
+
+    /**
+     * Record the think time of the search which just ended.
+     */
+    void finish(){
+        if(moves == thought.length){
+            thought = Arrays.copyOf(thought, moves * 2);
+            softs = Arrays.copyOf(softs, moves * 2);
+            hards = Arrays.copyOf(hards, moves * 2);
+        }
+        thought[moves] = elapsed();
+        softs[moves] = soft;
+        hards[moves] = hard;
+        moves++;
+    }
+
+    /**
+     * Describe the tail of think times against budgets over the moves recorded with finish.
+     * @return  Such as "40 moves, think time / soft budget median 0.71 90% 1.20 99% 1.90 max 2.00,
+     *          0 past the hard budget, worst 12 ms before it"
+     */
+    String tail(){
+        double[] ratios = new double[moves];
+        int over = 0;
+        long margin = Long.MAX_VALUE;
+        for(int i = 0; i < moves; i++){
+            ratios[i] = softs[i] == NO_LIMIT ? 0 : (double) thought[i] / softs[i];
+            if(hards[i] == NO_LIMIT)    continue;
+            if(thought[i] > hards[i])   over++;
+            margin = Math.min(margin, hards[i] - thought[i]);
+        }
+        Arrays.sort(ratios);
+
+        StringBuilder result = new StringBuilder(moves + " moves");
+        if(moves == 0)  return result.toString();
+        result.append(String.format(", think time / soft budget median %.2f 90%% %.2f 99%% %.2f max %.2f",
+                percentile(ratios, 50), percentile(ratios, 90), percentile(ratios, 99), ratios[moves - 1]));
+        result.append(", ").append(over).append(" past the hard budget");
+        if(margin != Long.MAX_VALUE){
+            result.append(margin >= 0 ? ", worst " + margin / MILLIS + " ms before it" : ", worst " + -margin / MILLIS + " ms after it");
+        }
+        return result.toString();
+    }
+
+    private static double percentile(double[] sorted, int percent){
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    /**
+     * Measure think times on a clock.
+     *
+     * Usage: java TimeManager [--dim N] [--custom] [--clock ms+increment] [--games N]
+     *
+     * The engine plays itself under the clock, 60000+600 by default, and prints the
+     * tail of think times against budgets and the time left at the end of every game.
+     */
+    public static void main(String[] args){
+        int dimension = 8, games = 1;
+        long clock = 60000, increment = 600;
+        boolean custom = false;
+        for(int i = 0; i < args.length; i++){
+            switch (args[i]){
+                case "--dim":       dimension = Integer.parseInt(args[++i]); break;
+                case "--custom":    custom = true; break;
+                case "--games":     games = Integer.parseInt(args[++i]); break;
+                case "--clock":
+                    String[] parts = args[++i].split("\\+");
+                    clock = Long.parseLong(parts[0]);
+                    increment = parts.length > 1 ? Long.parseLong(parts[1]) : 0;
+                    break;
+            }
+        }
+
+        Engine engine = new Engine(64);
+        PrintStream out = System.out;
+        for(int game = 0; game < games; game++){
+            // setting up the board prints every piece created
+            System.setOut(new PrintStream(new OutputStream(){
+                @Override
+                public void write(int b){}
+            }));
+            NormalGameRule rule = new NormalGameRule(dimension, dimension);
+            if(custom){
+                rule.setCustomPieces(true);
+                rule.board.resetPosition();
+            }
+            System.setOut(out);
+
+            long[] remaining = {clock, clock};
+            for(int ply = 0; ply < 200 && remaining[rule.board.getTurn().toInt()] > 0; ply++){
+                int side = rule.board.getTurn().toInt();
+                long start = System.nanoTime();
+                int move = engine.think(rule, remaining[side], increment, 0);
+                if(move == Move.NONE)   break;
+                rule.board.makeMove(move);
+                remaining[side] += increment - (System.nanoTime() - start) / MILLIS;
+            }
+            out.println("Game " + (game + 1) + ": " + rule.board.move + " plies, White has " + remaining[Side.WHITE.toInt()]
+                    + " ms left, Black " + remaining[Side.BLACK.toInt()] + " ms");
+        }
+        out.println(engine.time.tail());
+    }
+}
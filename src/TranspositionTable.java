@@ -0,0 +1,174 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size transposition table keyed by SquareBoard.hash, shared by any number
+ * of searching threads without locks.
+ *
+ * The table is a single preallocated long[] split into buckets of four entries,
+ * 64 bytes each. An entry takes two longs: the key XOR the data, and the data. A
+ * reader only accepts an entry if both XOR back to its key, so an entry half
+ * written by another thread, or belonging to another position, reads as a miss
+ * instead of being trusted.
+ *
+ * Data packs the move in the upper 32 bits, then a 16-bit score, an 8-bit depth,
+ * a 6-bit generation and a 2-bit bound. The bound is never NONE for a stored
+ * entry, so valid data is never 0.
+ */
+public class TranspositionTable {
+    static final int NONE = 0, UPPER = 1, LOWER = 2, EXACT = 3;    /**< Bound of a stored score */
+
+    static final int BUCKET = 4;                    /**< Entries per bucket */
+    private static final int LONGS = 2 * BUCKET;    /**< Longs per bucket */
+    private static final int GENERATIONS = 64;
+
+    long[] table;
+    int bucketMask;     /**< Number of buckets - 1, a power of two */
+    int generation;     /**< Current search generation, 6 bits */
+
+    LongAdder hits = new LongAdder();           /**< Probes which found their position */
+    LongAdder misses = new LongAdder();         /**< Probes which did not */
+    LongAdder collisions = new LongAdder();     /**< Stores which evicted another position of the current generation */
+
+    /**
+     * Allocate a table.
+     * @param megabytes    Size of the table, rounded down to a power of two of buckets
+     */
+    TranspositionTable(int megabytes){
+        if(megabytes <= 0)  throw new IllegalArgumentException("Invalid size");
+
+        long buckets = Long.highestOneBit((long) megabytes * 1024 * 1024 / (LONGS * 8));
+        buckets = Math.max(1, Math.min(buckets, 1L << 27));    // a Java array holds less than 2^31 longs
+        table = new long[(int) buckets * LONGS];
+        bucketMask = (int) buckets - 1;
+    }
+
+    /**
+     * Number of entries the table can hold.
+     * @return  Capacity
+     */
+    int capacity(){
+        return (bucketMask + 1) * BUCKET;
+    }
+
+    /**
+     * Start a new search, so entries of older searches are replaced first.
+     */
+    void newSearch(){
+        generation = (generation + 1) % GENERATIONS;
+    }
+
+    /**
+     * Empty the table and reset the counters. Not safe while other threads use the table.
+     */
+    void clear(){
+        Arrays.fill(table, 0);
+        generation = 0;
+        hits.reset();
+        misses.reset();
+        collisions.reset();
+    }
+
+    /**
+     * Look up a position.
+     * @param key    Position key
+     * @return  Packed data, 0 if the position is not stored
+     */
+    long probe(long key){
+        int base = ((int) key & bucketMask) * LONGS;
+        for(int i = base; i < base + LONGS; i += 2){
+            long data = table[i + 1];
+            if((table[i] ^ data) == key && data != 0){
+                hits.increment();
+                return data;
+            }
+        }
+        misses.increment();
+        return 0;
+    }
+
+    /**
+     * Store the result of a search. An entry of the same position is overwritten
+     * unless it was searched deeper in the current generation, otherwise the
+     * shallowest entry of the oldest generation in the bucket is replaced.
+     * @param key      Position key
+     * @param move     Best move, Move.NONE if unknown
+     * @param score    Score, must fit in 16 bits
+     * @param depth    Remaining depth searched, clamped to 0..255
+     * @param bound    UPPER, LOWER or EXACT
+     */
+    void store(long key, int move, int score, int depth, int bound){
+        int base = ((int) key & bucketMask) * LONGS, victim = base, victimValue = Integer.MAX_VALUE;
+
+        for(int i = base; i < base + LONGS; i += 2){
+            long old = table[i + 1];
+            if((table[i] ^ old) == key && old != 0){
+                // same position, keep a deeper result of this search and its move
+                if(generation(old) == generation && depth(old) > depth && bound != EXACT)   return;
+                if(move == Move.NONE)   move = move(old);
+                victim = i;
+                victimValue = Integer.MIN_VALUE;
+                break;
+            }
+
+            int value = old == 0 ? Integer.MIN_VALUE + 1 : depth(old) - 8 * ((generation - generation(old) + GENERATIONS) % GENERATIONS);
+            if(value < victimValue){
+                victim = i;
+                victimValue = value;
+            }
+        }
+
+        long old = table[victim + 1];
+        if(old != 0 && victimValue != Integer.MIN_VALUE && generation(old) == generation){
+            collisions.increment();
+        }
+
+        long data = pack(move, score, depth, bound, generation);
+        table[victim] = key ^ data;
+        table[victim + 1] = data;
+    }
+
+    static long pack(int move, int score, int depth, int bound, int generation){
+        depth = Math.max(0, Math.min(255, depth));
+        return (long) move << 32 | (score & 0xFFFFL) << 16 | depth << 8 | generation << 2 | bound;
+    }
+
+    static int move(long data){
+        return (int) (data >>> 32);
+    }
+
+    static int score(long data){
+        return (short) (data >>> 16);
+    }
+
+    static int depth(long data){
+        return (int) (data >>> 8) & 0xFF;
+    }
+
+    static int generation(long data){
+        return (int) (data >>> 2) & (GENERATIONS - 1);
+    }
+
+    static int bound(long data){
+        return (int) data & 3;
+    }
+
+    /**
+     * Estimate how full the table is from its first buckets.
+     * @return  Entries of the current generation per mille
+     */
+    int hashfull(){
+        int sample = Math.min(1000, capacity()), used = 0;
+        for(int i = 0; i < sample; i++){
+            long data = table[2 * i + 1];
+            if(data != 0 && generation(data) == generation) used++;
+        }
+        return used * 1000 / sample;
+    }
+
+    @Override
+    public String toString(){
+        return "TranspositionTable " + capacity() + " entries, hits " + hits.sum() + ", misses " + misses.sum()
+                + ", collisions " + collisions.sum() + ", hashfull " + hashfull();
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Zobrist keys of a board dimension, to identify positions with a single long.
+ *
+ * A position key is the XOR of the keys of every piece on its location, plus the
+ * side key when Black is to move. Besides side, type and location, a piece key
+ * covers the state which changes its moves: whether a Pawn may still advance two
+ * squares, and the direction a Turner moved in last time. Keys come from a fixed
+ * seed, so a position has the same key in every run.
+ */
+public class Zobrist {
+    private static final Map<Integer, Zobrist> cache = new HashMap<>();
+    private static final long SEED = 0x46616E6379436865L;
+
+    long[][][] pieces;      /**< Keys by side, PieceType index and location id */
+    long[][] unmovedPawns;  /**< Extra keys of Pawns which have not moved, by side and location id */
+    long[][][] turners;     /**< Extra keys of Turners by side, previous Direction ordinal and location id */
+    long side;              /**< Key of Black to move */
+
+    /**
+     * Get the keys of a dimension, generating them on first use.
+     * @param dimension    Dimension of the board
+     * @return  Shared keys
+     */
+    static synchronized Zobrist forDimension(int dimension){
+        Zobrist zobrist = cache.get(dimension);
+        if(zobrist == null){
+            zobrist = new Zobrist(dimension);
+            cache.put(dimension, zobrist);
+        }
+        return zobrist;
+    }
+
+    private Zobrist(int dimension){
+        int squares = dimension * dimension;
+        SplittableRandom random = new SplittableRandom(SEED + dimension);
+
+        pieces = new long[2][PieceType.values().length][squares];
+        unmovedPawns = new long[2][squares];
+        turners = new long[2][Direction.values().length][squares];
+        for(int s = 0; s < 2; s++){
+            for(long[] keys : pieces[s])    fill(keys, random);
+            for(long[] keys : turners[s])   fill(keys, random);
+            fill(unmovedPawns[s], random);
+        }
+        side = random.nextLong();
+    }
+
+    private static void fill(long[] keys, SplittableRandom random){
+        for(int i = 0; i < keys.length; i++){
+            keys[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Key of a piece standing on a location in its current state.
+     * @param piece    Chess piece
+     * @param id       Location id
+     * @return  Piece key
+     */
+    long keyOf(ChessPiece piece, int id){
+        int s = piece.side.toInt();
+        long key = pieces[s][piece.type.index][id];
+        if(piece.type == PieceType.PAWN && !piece.moved){
+            key ^= unmovedPawns[s][id];
+        }else if(piece.type == PieceType.TURNER){
+            Direction direction = piece.previousDirection == null ? Direction.NONE : piece.previousDirection;
+            key ^= turners[s][direction.ordinal()][id];
+        }
+        return key;
+    }
+
+    /**
+     * Compute the key of a board from scratch.
+     * @param board    A SquareBoard
+     * @return  Position key, same as SquareBoard.hash
+     */
+    long keyOf(SquareBoard board){
+        long key = board.getTurn() == Side.BLACK ? side : 0;
+        for(ChessPiece piece : board.pieces){
+            key ^= keyOf(piece, piece.location);
+        }
+        return key;
+    }
+}